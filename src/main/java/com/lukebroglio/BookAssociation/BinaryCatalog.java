@@ -0,0 +1,375 @@
+package com.lukebroglio.BookAssociation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A saved catalog in a compact binary format that is memory-mapped rather than parsed. Opening one only maps the file
+ * and reads its header; each Book is decoded from the mapped bytes when it is asked for.
+ * <p>
+ * File layout (all values big endian):
+ * <ul>
+ *     <li>Header: the int {@link #MAGIC}, the long sequence number of the last logged change included, the int number
+ *     of strings and the int number of Books</li>
+ *     <li>String table: an int offset per string plus one past the last, then every string as UTF-8. Titles, tags,
+ *     publishers and author names are each stored once and referred to by their index (-1 for null)</li>
+ *     <li>Title index: for every Book in order of title, the int index of its title and the int offset of its
+ *     record</li>
+ *     <li>Records: for every Book the int publisher, the long epoch day it was published (or {@link Long#MIN_VALUE}),
+ *     the int number of authors followed by 5 ints per author (first name, last name, middle name, title, suffix), and
+ *     the int number of tags followed by an (int tag, int weight) pair per tag</li>
+ * </ul>
+ * A single file must be smaller than 2GB so it can be held in one mapping.
+ *
+ * @author Luke Broglio
+ */
+public class BinaryCatalog {
+    /**
+     * Identifies binary catalog files
+     */
+    static final int MAGIC = 0x424B4331;
+    /**
+     * The size of the header in bytes
+     */
+    private static final int HEADER_SIZE = 20;
+
+    /**
+     * The mapped file
+     */
+    private final MappedByteBuffer buffer;
+    /**
+     * The sequence number of the last logged change included in the catalog
+     */
+    private final long lastLogSequence;
+    /**
+     * The number of strings in the string table
+     */
+    private final int stringCount;
+    /**
+     * The number of Books in the catalog
+     */
+    private final int bookCount;
+    /**
+     * The offset of the first string's bytes
+     */
+    private final int stringData;
+    /**
+     * The offset of the title index
+     */
+    private final int titleIndex;
+
+    /**
+     * @param buffer The mapped file
+     * @throws IOException Thrown if the file isn't a binary catalog
+     */
+    private BinaryCatalog(MappedByteBuffer buffer) throws IOException {
+        if(buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC){
+            throw new IOException("Not a binary catalog file");
+        }
+
+        this.buffer = buffer;
+        this.lastLogSequence = buffer.getLong(4);
+        this.stringCount = buffer.getInt(12);
+        this.bookCount = buffer.getInt(16);
+        this.stringData = HEADER_SIZE + (stringCount + 1) * 4;
+        this.titleIndex = stringData + buffer.getInt(HEADER_SIZE + stringCount * 4);
+    }
+
+    /**
+     * Checks if a file starts like a binary catalog
+     *
+     * @param file The file to check
+     * @return True if the file is a binary catalog, false if it is some other format
+     * @throws IOException Thrown if the file can't be read
+     */
+    public static boolean isBinaryCatalog(Path file) throws IOException {
+        try(InputStream in = Files.newInputStream(file)){
+            byte[] magic = in.readNBytes(4);
+            return magic.length == 4 && ByteBuffer.wrap(magic).getInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Maps a binary catalog file
+     *
+     * @param file The file to map
+     * @return The mapped catalog
+     * @throws IOException Thrown if the file can't be mapped or isn't a binary catalog
+     */
+    public static BinaryCatalog open(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            //The mapping stays valid after the channel is closed
+            return new BinaryCatalog(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Assigns strings their index in the string table
+     */
+    private static class StringTable {
+        /**
+         * Associates each string with its index
+         */
+        private final HashMap<String, Integer> ids = new HashMap<>();
+        /**
+         * The UTF-8 bytes of every string in order of index
+         */
+        private final ArrayList<byte[]> strings = new ArrayList<>();
+        /**
+         * The total number of bytes in strings
+         */
+        private long size;
+
+        /**
+         * @param s The string to find the index of, or null
+         * @return The index of the string, adding it if needed, or -1 for null
+         */
+        int idOf(String s){
+            if(s == null){
+                return -1;
+            }
+            return ids.computeIfAbsent(s, k -> {
+                byte[] bytes = k.getBytes(StandardCharsets.UTF_8);
+                strings.add(bytes);
+                size += bytes.length;
+                return strings.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * Writes Books to a binary catalog file
+     *
+     * @param file The file to write to
+     * @param books The Books to write
+     * @param tags The tags of each Book, in the same order as books
+     * @param lastLogSequence The sequence number of the last logged change the Books include
+     * @throws IOException Thrown if the file can't be written or would be too large
+     */
+    public static void write(Path file, List<Book> books, List<WeightedList<String>> tags, long lastLogSequence)
+            throws IOException {
+        Integer[] order = new Integer[books.size()];
+        for(int i = 0; i < order.length; i++){
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> books.get(i).getTitle()));
+
+        //Collect every string and the size of every record so offsets are known before anything is written
+        StringTable strings = new StringTable();
+        int[] recordSizes = new int[order.length];
+        long recordsSize = 0;
+        for(int i = 0; i < order.length; i++){
+            Book book = books.get(order[i]);
+            strings.idOf(book.getTitle());
+            strings.idOf(book.getPublisher());
+            for(Author author : book.getAuthors()){
+                strings.idOf(author.getFirstName());
+                strings.idOf(author.getLastName());
+                strings.idOf(author.getMiddleName());
+                strings.idOf(author.getTitle());
+                strings.idOf(author.getSuffix());
+            }
+            WeightedList<String> bookTags = tags.get(order[i]);
+            for(int j = 0; j < bookTags.size(); j++){
+                strings.idOf(bookTags.get(j));
+            }
+
+            recordSizes[i] = 4 + 8 + 4 + book.getAuthors().size() * 20 + 4 + bookTags.size() * 8;
+            recordsSize += recordSizes[i];
+        }
+
+        long recordsStart = HEADER_SIZE + (strings.strings.size() + 1) * 4L + strings.size + order.length * 8L;
+        if(recordsStart + recordsSize > Integer.MAX_VALUE){
+            throw new IOException("Catalog is too large for a binary catalog file");
+        }
+
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(MAGIC);
+            out.writeLong(lastLogSequence);
+            out.writeInt(strings.strings.size());
+            out.writeInt(order.length);
+
+            int stringOffset = 0;
+            for(byte[] s : strings.strings){
+                out.writeInt(stringOffset);
+                stringOffset += s.length;
+            }
+            out.writeInt(stringOffset);
+            for(byte[] s : strings.strings){
+                out.write(s);
+            }
+
+            long recordOffset = recordsStart;
+            for(int i = 0; i < order.length; i++){
+                out.writeInt(strings.idOf(books.get(order[i]).getTitle()));
+                out.writeInt((int) recordOffset);
+                recordOffset += recordSizes[i];
+            }
+
+            for(Integer i : order){
+                Book book = books.get(i);
+                out.writeInt(strings.idOf(book.getPublisher()));
+                out.writeLong((book.getPublicationDate() == null) ? Long.MIN_VALUE : book.getPublicationDate().toEpochDay());
+
+                out.writeInt(book.getAuthors().size());
+                for(Author author : book.getAuthors()){
+                    out.writeInt(strings.idOf(author.getFirstName()));
+                    out.writeInt(strings.idOf(author.getLastName()));
+                    out.writeInt(strings.idOf(author.getMiddleName()));
+                    out.writeInt(strings.idOf(author.getTitle()));
+                    out.writeInt(strings.idOf(author.getSuffix()));
+                }
+
+                WeightedList<String> bookTags = tags.get(i);
+                out.writeInt(bookTags.size());
+                for(int j = 0; j < bookTags.size(); j++){
+                    out.writeInt(strings.idOf(bookTags.get(j)));
+                    out.writeInt(bookTags.getWeight(j));
+                }
+            }
+
+            out.flush();
+            channel.force(true);
+        }
+    }
+
+    /**
+     * @return The sequence number of the last logged change included in the catalog
+     */
+    public long lastLogSequence(){
+        return lastLogSequence;
+    }
+
+    /**
+     * @return The number of Books in the catalog
+     */
+    public int size(){
+        return bookCount;
+    }
+
+    /**
+     * Decodes a string from the string table
+     *
+     * @param id The index of the string, or -1
+     * @return The string, or null for -1
+     */
+    private String string(int id){
+        if(id < 0){
+            return null;
+        }
+
+        int start = buffer.getInt(HEADER_SIZE + id * 4);
+        int end = buffer.getInt(HEADER_SIZE + (id + 1) * 4);
+        byte[] bytes = new byte[end - start];
+        buffer.get(stringData + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param index The position of a Book in order of title
+     * @return The title of the Book
+     */
+    public String titleAt(int index){
+        return string(buffer.getInt(titleIndex + index * 8));
+    }
+
+    /**
+     * Finds the position of a Book by binary searching the title index
+     *
+     * @param title The title of the Book to find
+     * @return The position of the Book in order of title, or -1 if the catalog doesn't hold it
+     */
+    public int indexOf(String title){
+        int found = search(title);
+        return (found < 0) ? -1 : found;
+    }
+
+    /**
+     * @param title A title, which doesn't have to be in the catalog
+     * @return The position of the first Book whose title comes after the given one, or {@link #size()} if there is none
+     */
+    public int indexAfter(String title){
+        int found = search(title);
+        return (found < 0) ? -found - 1 : found + 1;
+    }
+
+    /**
+     * Binary searches the title index
+     *
+     * @param title The title to search for
+     * @return The position of the Book with the title, or (-(the position it would be inserted at) - 1) if the catalog
+     * doesn't hold it
+     */
+    private int search(String title){
+        int low = 0;
+        int high = bookCount - 1;
+
+        while(low <= high){
+            int mid = (low + high) >>> 1;
+            int compared = titleAt(mid).compareTo(title);
+
+            if(compared < 0){
+                low = mid + 1;
+            }
+            else if(compared > 0){
+                high = mid - 1;
+            }
+            else{
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Decodes a Book along with its tags
+     *
+     * @param index The position of the Book in order of title
+     * @return A new Book holding the saved fields and tags
+     */
+    public Book bookAt(int index){
+        String title = titleAt(index);
+        int offset = buffer.getInt(titleIndex + index * 8 + 4);
+
+        String publisher = string(buffer.getInt(offset));
+        long epochDay = buffer.getLong(offset + 4);
+        LocalDate publicationDate = (epochDay == Long.MIN_VALUE) ? null : LocalDate.ofEpochDay(epochDay);
+        offset += 12;
+
+        int authorCount = buffer.getInt(offset);
+        offset += 4;
+        ArrayList<Author> authors = new ArrayList<>(authorCount);
+        for(int i = 0; i < authorCount; i++, offset += 20){
+            authors.add(new Author(string(buffer.getInt(offset)), string(buffer.getInt(offset + 4)),
+                    string(buffer.getInt(offset + 8)), string(buffer.getInt(offset + 12)),
+                    string(buffer.getInt(offset + 16))));
+        }
+
+        Book book = new Book(title, publisher, publicationDate, authors);
+        int tagCount = buffer.getInt(offset);
+        offset += 4;
+        for(int i = 0; i < tagCount; i++, offset += 8){
+            book.setTagWeight(string(buffer.getInt(offset)), buffer.getInt(offset + 4));
+        }
+
+        return book;
+    }
+}
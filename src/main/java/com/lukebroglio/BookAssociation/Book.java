@@ -1,9 +1,13 @@
 package com.lukebroglio.BookAssociation;
 
+import org.json.JSONObject;
 
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjIntConsumer;
 
 
 public class Book {
@@ -25,9 +29,36 @@ public class Book {
      */
     private LocalDate publicationDate;
     /**
-     * Stores the tags assigned to this book in order by an assigned weight using a {@link WeightedList}
+     * Stores the tags assigned to this book with their assigned weight using a {@link ConcurrentWeightedList} so the
+     * book can be tagged from many threads at once
      */
-    private final WeightedList<String> tags;
+    private final ConcurrentWeightedList<String> tags;
+    /**
+     * Sparse vector of this book's tag weights used to score similarity. Rebuilt on first use after the tags change
+     */
+    private volatile TagVector tagVector;
+    /**
+     * The sum of the squares of this book's tag weights (the squared length of its tag vector). Kept up to date as tags
+     * are added so similarity scorers never need to compute it
+     */
+    private final AtomicLong squaredNorm = new AtomicLong();
+    /**
+     * Counts the changes made to this book's fields other than its tags, which the tags count themselves
+     */
+    private final AtomicLong fieldVersion = new AtomicLong();
+    /**
+     * This book serialized as JSON. Reserialized on first use after the book changes
+     */
+    private volatile SerializedJson serializedJson;
+
+    /**
+     * Holds this book's JSON along with the versions of its tags and other fields it was serialized from
+     *
+     * @param tagVersion The version of the tags when serializing started
+     * @param fieldVersion The version of the other fields when serializing started
+     * @param bytes The UTF-8 bytes of the JSON
+     */
+    private record SerializedJson(long tagVersion, long fieldVersion, byte[] bytes) {}
 
     /**
      * Creates a new Book.
@@ -45,7 +76,7 @@ public class Book {
         this.publicationDate = publicationDate;
         this.authors = new ArrayList<>();
         this.authors.addAll(authors);
-        this.tags = new WeightedList<>();
+        this.tags = new ConcurrentWeightedList<>();
 
     }
 
@@ -65,13 +96,25 @@ public class Book {
         this.publicationDate = publicationDate;
         this.authors = new ArrayList<>();
         this.authors.add(author);
-        this.tags = new WeightedList<>();
+        this.tags = new ConcurrentWeightedList<>();
+    }
+
+    /**
+     * Creates a copy of a Book with its own tags, so the copy can be tagged without changing the original
+     *
+     * @param original The Book to copy
+     */
+    private Book(Book original){
+        this(original.title, original.publisher, original.publicationDate, original.authors);
+        original.forEachTag(this::setTagWeight);
     }
 
     /**
      *Creates a Book with from a LinkedHashMap with all of its fields. Used to read in saved Books from a JSON file
      *
      * @param o The LinkedHashMap with the fields of this book
+     * @param t Associates titles with the weights of their Book's tags. Tags without a weight (including every tag of
+     *          a Book whose title isn't in it) are given a weight of 1, and missing authors or tags are taken as none
      */
     //This is necessary because this constructor is used when creating Books from a read in JSON which leads to unavoidable casts
     @SuppressWarnings("unchecked")
@@ -80,22 +123,21 @@ public class Book {
         this.publisher = (String) o.get("publisher");;
         this.publicationDate = LocalDate.parse((String) o.get("publicationDate"));
         this.authors = new ArrayList<>();
-        this.tags = new WeightedList<>();
+        this.tags = new ConcurrentWeightedList<>();
 
-        ArrayList<Object> authorList = (ArrayList<Object>) o.get("authors");
+        ArrayList<Object> authorList = (ArrayList<Object>) o.getOrDefault("authors", new ArrayList<>());
 
         for (Object a : authorList) {
             LinkedHashMap<Object,Object> linkedHashMap = (LinkedHashMap<Object,Object>) a;
             this.authors.add(new Author((String) linkedHashMap.get("firstName"), (String) linkedHashMap.get("lastName"), (String) linkedHashMap.get("middleName"), (String) linkedHashMap.get("title"), (String) linkedHashMap.get("suffix")));
         }
 
-        ArrayList<String> tagList = (ArrayList<String>) o.get("tags");
-        this.tags.addAll(tagList);
+        ArrayList<String> tagList = (ArrayList<String>) o.getOrDefault("tags", new ArrayList<>());
 
-        HashMap<String, BigInteger> tagWeights = t.get(this.title);
-        for(int i =0; i < this.tags.size(); i++){
-            String tag = tags.get(i);
-            this.tags.setWeight(tag, tagWeights.get(tag).intValue());
+        HashMap<String, BigInteger> tagWeights = t.getOrDefault(this.title, new HashMap<>());
+        for(String tag : tagList){
+            BigInteger weight = tagWeights.get(tag);
+            setTagWeight(tag, (weight == null) ? 1 : weight.intValue());
         }
 
     }
@@ -120,6 +162,7 @@ public class Book {
      */
     public void addAuthor(Author toAdd){
         authors.add(toAdd);
+        fieldVersion.incrementAndGet();
     }
 
     /**
@@ -135,6 +178,7 @@ public class Book {
      */
     public void setPublisher(String publisher) {
         this.publisher = publisher;
+        fieldVersion.incrementAndGet();
     }
 
     /**
@@ -152,21 +196,79 @@ public class Book {
      */
     public void setPublicationDate(LocalDate publicationDate) {
         this.publicationDate = publicationDate;
+        fieldVersion.incrementAndGet();
     }
 
     /**
-     * @return {@link WeightedList} of the tags this book has been assigned
+     * @return {@link WeightedList} of the tags this book has been assigned ordered by their weight. The list is a
+     * snapshot shared with other readers and must not be modified
      */
     public WeightedList<String> getTags() {
-        return tags;
+        return tags.snapshot();
     }
 
     /**
      * Adds a tag to this book. If the tag has already been added its weight will be increased by one
      * @param tag The tag to add or to increase the weight of
+     * @return True if the tag was new to this book, false if its weight was increased
      */
-   public void addTag(String tag){
-        tags.add(tag);
+   public boolean addTag(String tag){
+        return addTag(tag, 1);
+   }
+
+    /**
+     * Adds a tag to this book the given number of times at once. If the tag has already been added its weight will be
+     * increased by count
+     * @param tag The tag to add or to increase the weight of
+     * @param count The number of times to add the tag. Must be positive
+     * @return True if the tag was new to this book, false if its weight was increased
+     */
+   public boolean addTag(String tag, int count){
+        int weight = tags.increment(tag, count);
+
+        //Going from a weight of w - c to w adds w^2 - (w - c)^2 = c(2w - c) to the sum of squares
+        squaredNorm.addAndGet((long) count * (2L * weight - count));
+        return weight == count;
+   }
+
+    /**
+     * Creates a copy of this book with tags added, leaving this book unchanged. Used by {@link MemoryBookStorage} so a Book
+     * it has stored always has the tags recorded for it in the {@link CatalogSnapshot} it was read from
+     *
+     * @param tagCounts Associates each tag to add with the number of times to add it
+     * @return The tagged copy
+     */
+   Book withTags(Map<String, Integer> tagCounts){
+       Book copy = new Book(this);
+       tagCounts.forEach(copy::addTag);
+       return copy;
+   }
+
+    /**
+     * Sets the weight of one of this book's tags, adding the tag if the book doesn't have it. Used while loading a
+     * saved book, before it is shared with other threads
+     *
+     * @param tag The tag to set the weight of
+     * @param weight The weight of the tag
+     */
+   void setTagWeight(String tag, int weight){
+       int previous = tags.getWeightOf(tag);
+       tags.setWeight(tag, weight);
+       squaredNorm.addAndGet((long) weight * weight - (long) previous * previous);
+   }
+
+    /**
+     * @return The sum of the squares of this book's tag weights
+     */
+   long squaredNorm(){
+       return squaredNorm.get();
+   }
+
+    /**
+     * @return The number of distinct tags this book has been given
+     */
+   int tagCount(){
+       return tags.size();
    }
 
     /**
@@ -187,7 +289,52 @@ public class Book {
      * @return The number of times the Book has been given the tag
      */
    public int tagNumber(String tag){
-       return tags.getWeight(tags.indexOf(tag));
+       return tags.getWeightOf(tag);
+   }
+
+    /**
+     * Gets the sparse {@link TagVector} of this Book's tags, rebuilding it first if the tags have changed since it
+     * was last built
+     *
+     * @return The TagVector of this Book's current tags
+     */
+   TagVector tagVector(){
+       TagVector current = tagVector;
+       long version = tags.version();
+
+       if(current == null || current.version() != version){
+           current = TagVector.of(tags, version);
+           tagVector = current;
+       }
+       return current;
+   }
+
+    /**
+     * Gets this Book serialized as a JSON object (the same JSON as {@link JSONObject#JSONObject(Object)} produces),
+     * serializing it again first only if it has changed since it was last serialized. The returned array is shared and
+     * must not be modified
+     *
+     * @return The UTF-8 bytes of this Book's JSON
+     */
+   byte[] jsonBytes(){
+       SerializedJson current = serializedJson;
+       long tagVersion = tags.version();
+       long fields = fieldVersion.get();
+
+       if(current == null || current.tagVersion() != tagVersion || current.fieldVersion() != fields){
+           current = new SerializedJson(tagVersion, fields, new JSONObject(this).toString().getBytes(StandardCharsets.UTF_8));
+           serializedJson = current;
+       }
+       return current.bytes();
+   }
+
+    /**
+     * Calls the given action with every tag of this Book and its weight. Tags are given in no particular order
+     *
+     * @param action The action to run for each tag
+     */
+   void forEachTag(ObjIntConsumer<String> action){
+       tags.forEach(action);
    }
 
     /**
@@ -199,38 +346,28 @@ public class Book {
      * @return {@link WeightedList}  containing the tags shared by this book and compareTo
      */
    public WeightedList<String> compareTags(Book compareTo){
-       WeightedList<String> combinedTags = new WeightedList<String>();
-
-       for(int i =0; i < tags.size(); i++){
-            String currTag = tags.get(i);
+       IntWeightMap<String> combinedTags = new IntWeightMap<String>(tags.size());
 
+       tags.forEach((currTag, weight) -> {
             if(compareTo.hasTag(currTag)){
-                int combinedWeight = tagNumber(currTag) * compareTo.tagNumber(currTag);
-                combinedTags.addWithWeight(currTag,combinedWeight);
+                int combinedWeight = weight * compareTo.tagNumber(currTag);
+                combinedTags.setWeight(currTag,combinedWeight);
             }
-       }
+       });
 
-       return combinedTags;
+       return combinedTags.toWeightedList();
    }
 
     /**
      * Returns the similarity ranking of two Books.
-     * The similarity ranking is calculated by first comparing their tags ({@link #compareTags})
-     * and then adding the weights of the combined tags together
+     * The similarity ranking is the sum of the weights of the tags they share as found by {@link #compareTags}.
+     * It is computed directly from the Books' {@link TagVector}s so no list of the shared tags is created.
      *
      * @param compareTo The Book to generate a similarity ranking to
      * @return The similarity ranking of this book with compareTo
      */
    public int getSimilarityRanking(Book compareTo){
-       WeightedList<String> similarTags = compareTags(compareTo);
-
-       int similarityRanking = 0;
-
-       for(int i =0; i < similarTags.size(); i++){
-           similarityRanking += similarTags.getWeight(i);
-       }
-
-       return similarityRanking;
+       return TagVector.dot(tagVector(), compareTo.tagVector());
    }
 
 
@@ -241,7 +378,7 @@ public class Book {
                 ", authors=" + authors +
                 ", publisher='" + publisher + '\'' +
                 ", publicationDate=" + publicationDate +
-                ", tags=" + tags +
+                ", tags=" + tags.snapshot() +
                 '}';
     }
 
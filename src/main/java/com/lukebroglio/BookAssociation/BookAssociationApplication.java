@@ -1,32 +1,141 @@
 package com.lukebroglio.BookAssociation;
 
+import jakarta.servlet.http.HttpServletResponse;
 import org.apache.tomcat.util.json.JSONParser;
 import org.apache.tomcat.util.json.ParseException;
+import org.apache.tomcat.util.json.TokenMgrError;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.math.BigInteger;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.Month;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.IntStream;
 
 @CrossOrigin(maxAge = 3600)
 @SpringBootApplication
 @RestController
 public class BookAssociationApplication {
+	/**
+	 * The number of Books read from storage at a time while streaming the catalog
+	 */
+	private static final int STREAM_PAGE_SIZE = 500;
+	/**
+	 * Identifies this run of the server in ETags, since catalog versions start again from 0 on every run
+	 */
+	private static final String INSTANCE_ID = Long.toString(System.currentTimeMillis(), 36);
+	/**
+	 * The ways /related can find related Books
+	 */
+	private static final Set<String> RELATED_MODES = Set.of("exact", "approx", "precomputed");
+
+	/**
+	 * The number of lines of a bulk import parsed and added at a time
+	 */
+	private static final int BULK_CHUNK_LINES = 1000;
+	/**
+	 * The most lines that failed to parse listed in the report of a bulk import
+	 */
+	private static final int BULK_REPORTED_ERRORS = 100;
+	/**
+	 * How long a client whose change was rejected because the write queue was full is asked to wait, in seconds
+	 */
+	private static final String RETRY_AFTER_SECONDS = "1";
+
 	public static BookStorage storedBooks;
-	public static void main(String[] args) throws IOException, ParseException {
-		storedBooks = new BookStorage();
-		storedBooks.readInBooks("Test.json");
+	/**
+	 * Applies the changes requested through /add and /tag on one writer thread
+	 */
+	public static MutationQueue mutations;
+	public static void main(String[] args) throws IOException, ParseException, SQLException {
+		Properties settings = new Properties();
+		try(InputStream in = BookAssociationApplication.class.getResourceAsStream("/application.properties")){
+			if(in != null){
+				settings.load(in);
+			}
+		}
+
+		//System properties override application.properties
+		String backend = System.getProperty("bookassociation.storage", settings.getProperty("bookassociation.storage", "memory"));
+		//Only the in-memory catalog has dense scoring, a mutation log and shards to set up
+		MemoryBookStorage memoryBooks = null;
+		if(backend.equals("sql")){
+			storedBooks = new SqlBookStorage(System.getProperty("bookassociation.sql.url",
+					settings.getProperty("bookassociation.sql.url", "jdbc:h2:file:./catalog")));
+		}
+		else{
+			memoryBooks = new MemoryBookStorage();
+			memoryBooks.setDenseScoring(Integer.getInteger("bookassociation.denseTags", 0));
+			memoryBooks.setCommitWindow(Long.getLong("bookassociation.commitWindowMillis", 20));
+			memoryBooks.setShardCount(Integer.getInteger("bookassociation.shards", 0));
+			storedBooks = memoryBooks;
+		}
+		storedBooks.open(System.getProperty("bookassociation.catalog", "Test.json"));
+
+		//Migration: write the catalog as a memory-mappable binary catalog and exit without starting the server
+		String binaryOutput = System.getProperty("bookassociation.convertToBinary");
+		if(binaryOutput != null){
+			storedBooks.saveBinaryCatalog(binaryOutput);
+			storedBooks.close();
+			return;
+		}
+
+		//Batch mode: write the all-pairs similarity matrix and exit without starting the server
+		String matrixOutput = System.getProperty("bookassociation.buildSimilarityMatrix");
+		if(matrixOutput != null){
+			int topN = Integer.getInteger("bookassociation.similarityTopN", 50);
+			storedBooks.computeSimilarityMatrix(topN).write(Path.of(matrixOutput));
+			return;
+		}
+
+		String matrixInput = System.getProperty("bookassociation.similarityMatrix");
+		if(matrixInput != null){
+			storedBooks.setSimilarityMatrix(SimilarityMatrix.read(Path.of(matrixInput)));
+		}
+
+		if(memoryBooks != null){
+			memoryBooks.startCompaction(Long.getLong("bookassociation.compactionSeconds", 60),
+					Long.getLong("bookassociation.compactionChanges", 10_000));
+		}
+		mutations = new MutationQueue(storedBooks,
+				Integer.getInteger("bookassociation.writeQueueCapacity", MutationQueue.DEFAULT_CAPACITY),
+				Integer.getInteger("bookassociation.writeBatchSize", MutationQueue.DEFAULT_BATCH_SIZE));
+		mutations.start();
 
 		SpringApplication.run(BookAssociationApplication.class, args);
 	}
@@ -36,32 +145,524 @@ public class BookAssociationApplication {
 		return "Test Success";
 	}
 
+	/**
+	 * Lists the catalog in order of title as a JSON array. With a limit only one page is returned, and if more Books may
+	 * follow the X-Next-After header holds the (URL encoded) title to pass as after to get the next page. Without a
+	 * limit every Book from after onwards is streamed straight to the response a page at a time, so the catalog is
+	 * never held in memory as a whole. Responses are tagged with the catalog version and a request whose
+	 * If-None-Match still matches it gets a 304 without reading the catalog.
+	 *
+	 * @param after The title to start after, or null to start at the first Book
+	 * @param limit The maximum number of Books to return, or null to stream the rest of the catalog
+	 * @param request The request, checked for If-None-Match
+	 * @return The Books as a JSON array, or null if the client's copy is current
+	 */
 	@RequestMapping("/")
-	public String allBooks(){
-		return (new JSONArray(storedBooks.getAllBooks()).toString());
+	public ResponseEntity<StreamingResponseBody> allBooks(@RequestParam(required = false) String after,
+														  @RequestParam(required = false) Integer limit,
+														  WebRequest request){
+		//Read before the catalog so a change made while responding only makes the tag out of date, never the body.
+		//checkNotModified also sets the ETag header of the response
+		String etag = catalogETag();
+		if(request.checkNotModified(etag)){
+			return null;
+		}
+		ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+
+		if(limit == null){
+			return response.body(out -> streamBooks(out, after));
+		}
+
+		List<Book> page = storedBooks.getBooksAfter(after, Math.max(limit, 0));
+		if(!page.isEmpty() && page.size() == limit){
+			response.header("X-Next-After",
+					URLEncoder.encode(page.get(page.size() - 1).getTitle(), StandardCharsets.UTF_8));
+		}
+		return response.body(out -> {
+			OutputStream buffered = new BufferedOutputStream(out);
+			buffered.write('[');
+			writeBooks(buffered, page, true);
+			buffered.write(']');
+			buffered.flush();
+		});
+	}
+
+	/**
+	 * Writes every Book from after onwards as a JSON array, reading and flushing one page at a time
+	 *
+	 * @param out The stream to write to
+	 * @param after The title to start after, or null to start at the first Book
+	 * @throws IOException Thrown if the response can't be written
+	 */
+	private static void streamBooks(OutputStream out, String after) throws IOException {
+		OutputStream buffered = new BufferedOutputStream(out);
+		buffered.write('[');
+
+		List<Book> page = storedBooks.getBooksAfter(after, STREAM_PAGE_SIZE);
+		boolean first = true;
+		while(!page.isEmpty()){
+			writeBooks(buffered, page, first);
+			buffered.flush();
+			first = false;
+
+			if(page.size() < STREAM_PAGE_SIZE){
+				break;
+			}
+			page = storedBooks.getBooksAfter(page.get(page.size() - 1).getTitle(), STREAM_PAGE_SIZE);
+		}
+
+		buffered.write(']');
+		buffered.flush();
+	}
+
+	/**
+	 * Writes Books as the elements of a JSON array using the JSON each Book caches
+	 *
+	 * @param out The stream to write to
+	 * @param books The Books to write
+	 * @param first True if these are the first elements of the array, false if a comma must come before them
+	 * @throws IOException Thrown if the Books can't be written
+	 */
+	private static void writeBooks(OutputStream out, Iterable<Book> books, boolean first) throws IOException {
+		for(Book book : books){
+			if(!first){
+				out.write(',');
+			}
+			first = false;
+			out.write(book.jsonBytes());
+		}
 	}
 
+	/**
+	 * @return The ETag of responses built from the current catalog
+	 */
+	private static String catalogETag(){
+		return "\"" + INSTANCE_ID + "-" + storedBooks.catalogVersion() + "\"";
+	}
+
+	/**
+	 * Converts a list of Books to a JSON array response
+	 *
+	 * @param books The Books to convert
+	 * @return The response holding the Books
+	 * @throws IOException Thrown if the Books can't be written
+	 */
+	private static ResponseEntity<byte[]> booksResponse(Iterable<Book> books) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write('[');
+		writeBooks(out, books, true);
+		out.write(']');
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(out.toByteArray());
+	}
+
+	/**
+	 * Lists the Books related to a Book, most related first. The raw scorer can find them exactly (answered from the
+	 * related cache), approximately from the MinHash index, or from the precomputed similarity matrix. The other
+	 * scorers always score the catalog exactly and aren't cached, so asking for another mode with them is a 400. A
+	 * storage without an approximate index answers approx queries exactly and sets the X-Related-Fallback header to
+	 * exact.
+	 *
+	 * @param book The title of the Book to find related Books for
+	 * @param limit The maximum number of Books to return, or null to return every related Book
+	 * @param mode How to find the related Books: exact, approx or precomputed
+	 * @param scorer The name of the {@link SimilarityScorer} to rank Books with
+	 * @param response The response, given the candidate count and time taken of approximate queries as headers
+	 * @param request The request, checked for If-None-Match
+	 * @return The related Books as a JSON array, or null if the client's copy is current
+	 * @throws IOException Thrown if the Books can't be written
+	 * @throws BookNotFoundException Thrown if no Book has the title, answered with a 404
+	 */
 	@RequestMapping("/related/{book}")
-	public String getRelated(@PathVariable String book){
-		return (new JSONArray(storedBooks.getRelated(storedBooks.getBook(book))).toString());
+	public ResponseEntity<byte[]> getRelated(@PathVariable String book, @RequestParam(required = false) Integer limit,
+											 @RequestParam(defaultValue = "exact") String mode,
+											 @RequestParam(defaultValue = "raw") String scorer,
+											 HttpServletResponse response, WebRequest request) throws IOException {
+		SimilarityScorer similarityScorer;
+		try{
+			similarityScorer = SimilarityScorer.fromName(scorer);
+		}
+		catch(IllegalArgumentException e){
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown scorer: " + scorer);
+		}
+		if(!RELATED_MODES.contains(mode)){
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown mode: " + mode);
+		}
+		if(similarityScorer != SimilarityScorer.RAW && !mode.equals("exact")){
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+					"The " + scorer + " scorer only supports the exact mode");
+		}
+
+		//Related lists depend on the whole catalog, so any change to it makes them out of date
+		String etag = catalogETag();
+		if(request.checkNotModified(etag)){
+			return null;
+		}
+
+		Book startingPoint = storedBook(book);
+		int maxResults = (limit == null) ? Integer.MAX_VALUE : Math.max(limit, 0);
+
+		if(similarityScorer != SimilarityScorer.RAW){
+			return booksResponse(storedBooks.getRelated(startingPoint, maxResults, similarityScorer));
+		}
+
+		if(mode.equals("precomputed")){
+			return booksResponse(storedBooks.getRelatedPrecomputed(startingPoint, maxResults));
+		}
+		if(mode.equals("approx")){
+			BookStorage.ApproximateRelated approximate = storedBooks.getRelatedApproximate(startingPoint, maxResults);
+			response.setHeader("X-Related-Candidates", Integer.toString(approximate.candidates()));
+			response.setHeader("X-Related-Micros", Long.toString(approximate.micros()));
+			setFallbackHeader(response);
+			return booksResponse(approximate.related());
+		}
+		return booksResponse(storedBooks.getRelated(startingPoint, maxResults));
+	}
+
+	/**
+	 * Reports how many of a Book's exact related Books the approximate query finds. A storage without an approximate
+	 * index always reports a recall of 1 and sets the X-Related-Fallback header to exact.
+	 *
+	 * @param book The title of the Book to compare the queries for
+	 * @param limit The maximum number of Books to compare
+	 * @param response The response, given the fallback header
+	 * @return The recall, candidate count and time taken of each query as JSON
+	 * @throws BookNotFoundException Thrown if no Book has the title, answered with a 404
+	 */
+	@RequestMapping("/related/{book}/recall")
+	public String getRecall(@PathVariable String book, @RequestParam(defaultValue = "10") int limit,
+							HttpServletResponse response){
+		BookStorage.RecallReport report = storedBooks.measureRecall(storedBook(book), Math.max(limit, 0));
+		setFallbackHeader(response);
+
+		JSONObject reportJson = new JSONObject();
+		reportJson.put("recall", report.recall());
+		reportJson.put("candidates", report.candidates());
+		reportJson.put("approximateMicros", report.approximateMicros());
+		reportJson.put("exactMicros", report.exactMicros());
+		return reportJson.toString();
+	}
+
+	/**
+	 * @param title The title of the Book to get
+	 * @return The stored Book with the title
+	 * @throws BookNotFoundException Thrown if no Book has the title, answered with a 404
+	 */
+	private static Book storedBook(String title){
+		Book book = storedBooks.getBook(title);
+		if(book == null){
+			throw new BookNotFoundException(title);
+		}
+		return book;
+	}
+
+	/**
+	 * Tells the client an approximate query was answered exactly if the storage has no approximate index
+	 *
+	 * @param response The response to set the header on
+	 */
+	private static void setFallbackHeader(HttpServletResponse response){
+		if(!storedBooks.hasApproximateIndex()){
+			response.setHeader("X-Related-Fallback", "exact");
+		}
 	}
 
+	@ExceptionHandler(IllegalArgumentException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public String badChange(IllegalArgumentException e){
+		return e.getMessage();
+	}
+
+	@ExceptionHandler(BookNotFoundException.class)
+	@ResponseStatus(HttpStatus.NOT_FOUND)
+	public String bookNotFound(BookNotFoundException e){
+		return e.getMessage();
+	}
+
+	@ExceptionHandler(RejectedExecutionException.class)
+	public ResponseEntity<String> writeQueueFull(RejectedExecutionException e){
+		return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+				.header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+				.body(e.getMessage());
+	}
+
+	/**
+	 * Queues adding a Book. The request thread is released while the change waits for the writer, and the response is
+	 * sent once it has been applied (and synced if asked). Answers 429 if too many changes are already waiting
+	 */
+	//The Book JSON constructor takes the maps JSONParser creates, so the cast can't be avoided
+	@SuppressWarnings("unchecked")
 	@PostMapping("/add")
-	public void addBook(@RequestBody String newBook) throws IOException, ParseException {
+	public CompletableFuture<Void> addBook(@RequestBody String newBook, @RequestParam(defaultValue = "false") boolean sync)
+			throws ParseException {
 		JSONParser parser = new JSONParser(newBook);
 		Book toAdd = new Book((LinkedHashMap<Object, Object>) parser.parse(),new HashMap<>());
-		storedBooks.addBook(toAdd);
-		storedBooks.saveBooks("Test.json");
+		return mutations.addBook(toAdd, sync);
+	}
+
+	/**
+	 * Imports Books streamed as newline-delimited JSON, one Book per line in the format of {@link #addBook} with an
+	 * optional tagWeights object giving the weight of each tag. Lines are read and parsed in parallel a chunk at a
+	 * time, and each chunk is added as one change while the next is parsed. The last chunk is synced, so the whole
+	 * import is on disk before the response is sent. Lines that can't be parsed are skipped and reported.
+	 * <p>
+	 * If a chunk can't be added the import stops there and the report is sent with a 500. It holds the Books added by
+	 * the chunks before it and a failedChunk object giving the chunk's first line, its number of lines and the error,
+	 * so the client can resend the body from that line.
+	 *
+	 * @param body The request body
+	 * @return A JSON report of the number of Books added and lines that failed, the first failures, the time taken and
+	 * the Books added per second
+	 * @throws IOException Thrown if the body can't be read
+	 * @throws InterruptedException Thrown if the request is interrupted while waiting for room in the write queue
+	 */
+	@PostMapping("/add/bulk")
+	public CompletableFuture<ResponseEntity<String>> addBooks(InputStream body) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+		JSONObject report = new JSONObject();
+		JSONArray errors = new JSONArray();
+		//Books count as added once the writer has applied their chunk
+		long added = 0;
+		long failed = 0;
+		int firstLine = 1;
+		CompletableFuture<Void> previous = CompletableFuture.completedFuture(null);
+		int previousBooks = 0;
+		int previousFirstLine = 1;
+		int previousLines = 0;
+
+		List<String> lines = readLines(reader, BULK_CHUNK_LINES);
+		while(!lines.isEmpty()){
+			String[] lineErrors = new String[lines.size()];
+			List<Book> books = parseBooks(lines, lineErrors);
+			for(int i = 0; i < lineErrors.length; i++){
+				if(lineErrors[i] != null){
+					failed++;
+					if(errors.length() < BULK_REPORTED_ERRORS){
+						errors.put(new JSONObject().put("line", firstLine + i).put("error", lineErrors[i]));
+					}
+				}
+			}
+
+			//Only one chunk waits on the writer at a time, so a fast client can't fill the queue
+			try{
+				previous.join();
+			}
+			catch(CompletionException e){
+				report.put("added", added);
+				report.put("failed", failed);
+				report.put("errors", errors);
+				return CompletableFuture.completedFuture(bulkFailed(report, previousFirstLine, previousLines,
+						e.getCause(), start));
+			}
+			added += previousBooks;
+			previousBooks = books.size();
+			previousFirstLine = firstLine;
+			previousLines = lines.size();
+
+			firstLine += lines.size();
+			lines = readLines(reader, BULK_CHUNK_LINES);
+			previous = mutations.addBooks(books, lines.isEmpty());
+		}
+
+		report.put("failed", failed);
+		report.put("errors", errors);
+		long addedBefore = added;
+		int lastBooks = previousBooks;
+		int lastFirstLine = previousFirstLine;
+		int lastLines = previousLines;
+		return previous.handle((done, failure) -> {
+			if(failure != null){
+				report.put("added", addedBefore);
+				return bulkFailed(report, lastFirstLine, lastLines,
+						(failure instanceof CompletionException) ? failure.getCause() : failure, start);
+			}
+
+			report.put("added", addedBefore + lastBooks);
+			long millis = reportTime(report, start);
+			report.put("booksPerSecond", report.getLong("added") * 1000 / millis);
+			return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(report.toString());
+		});
+	}
+
+	/**
+	 * Finishes the report of a bulk import stopped by a chunk that couldn't be added
+	 *
+	 * @param report The report so far, holding the Books added before the chunk
+	 * @param firstLine The first line of the chunk
+	 * @param lines The number of lines in the chunk
+	 * @param failure Why the chunk couldn't be added
+	 * @param start When the import started, from {@link System#nanoTime}
+	 * @return A 500 response holding the report
+	 */
+	private static ResponseEntity<String> bulkFailed(JSONObject report, int firstLine, int lines, Throwable failure,
+													 long start){
+		report.put("failedChunk", new JSONObject()
+				.put("firstLine", firstLine)
+				.put("lines", lines)
+				.put("error", String.valueOf(failure.getMessage())));
+		reportTime(report, start);
+		return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).contentType(MediaType.APPLICATION_JSON)
+				.body(report.toString());
 	}
 
+	/**
+	 * @param report The report of a bulk import to add the time taken to
+	 * @param start When the import started, from {@link System#nanoTime}
+	 * @return The time taken in milliseconds, at least 1
+	 */
+	private static long reportTime(JSONObject report, long start){
+		long millis = Math.max((System.nanoTime() - start) / 1_000_000, 1);
+		report.put("millis", millis);
+		return millis;
+	}
+
+	/**
+	 * @param reader The reader to read from
+	 * @param count The maximum number of lines to read
+	 * @return The next count lines, or fewer at the end of the input
+	 * @throws IOException Thrown if the lines can't be read
+	 */
+	private static List<String> readLines(BufferedReader reader, int count) throws IOException {
+		ArrayList<String> lines = new ArrayList<>(count);
+		String line;
+		while(lines.size() < count && (line = reader.readLine()) != null){
+			lines.add(line);
+		}
+		return lines;
+	}
+
+	/**
+	 * Parses lines of newline-delimited JSON Books in parallel. Blank lines are skipped
+	 *
+	 * @param lines The lines to parse
+	 * @param errors Receives the reason each line that couldn't be parsed failed, at the line's index
+	 * @return The Books parsed, in the order of their lines
+	 */
+	private static List<Book> parseBooks(List<String> lines, String[] errors){
+		Book[] parsed = new Book[lines.size()];
+		IntStream.range(0, parsed.length).parallel().forEach(i -> {
+			try{
+				if(!lines.get(i).isBlank()){
+					parsed[i] = parseBook(lines.get(i));
+					//Serialize here, in parallel, so the writer only has to copy it into the mutation log
+					parsed[i].jsonBytes();
+				}
+			}
+			//The parser reports text it can't even split into tokens with an Error rather than a ParseException
+			catch(ParseException | TokenMgrError | RuntimeException e){
+				errors[i] = (e.getMessage() == null) ? e.getClass().getSimpleName() : e.getMessage();
+			}
+		});
+
+		ArrayList<Book> books = new ArrayList<>(parsed.length);
+		for(Book book : parsed){
+			if(book != null){
+				books.add(book);
+			}
+		}
+		return books;
+	}
+
+	/**
+	 * @param line A JSON object holding a Book's fields, with an optional tagWeights object giving each tag's weight
+	 * @return The Book
+	 * @throws ParseException Thrown if the line isn't valid JSON
+	 */
+	//The Book JSON constructor takes the maps JSONParser creates, so the casts can't be avoided
+	@SuppressWarnings("unchecked")
+	private static Book parseBook(String line) throws ParseException {
+		Object json = new JSONParser(line).parse();
+		if(!(json instanceof LinkedHashMap<?, ?> fields) || !(fields.get("title") instanceof String title)){
+			throw new IllegalArgumentException("Each line must be a JSON object with a title");
+		}
+
+		HashMap<String, HashMap<String, BigInteger>> tagWeights = new HashMap<>();
+		if(fields.get("tagWeights") instanceof HashMap<?, ?> weights){
+			tagWeights.put(title, (HashMap<String, BigInteger>) weights);
+		}
+		return new Book((LinkedHashMap<Object, Object>) fields, tagWeights);
+	}
+
+	/**
+	 * Queues tagging a Book the same way as {@link #addBook}
+	 */
 	@PutMapping("/tag")
-	public void tagBook(@RequestBody String tagJSON) throws ParseException, IOException {
+	public CompletableFuture<Void> tagBook(@RequestBody String tagJSON, @RequestParam(defaultValue = "false") boolean sync)
+			throws ParseException {
 		JSONParser parser = new JSONParser(tagJSON);
-		LinkedHashMap<Object,Object> parsedRequest = (LinkedHashMap<Object, Object>) parser.parse();
+		LinkedHashMap<?, ?> parsedRequest = (LinkedHashMap<?, ?>) parser.parse();
+
+		return mutations.tagBook((String) parsedRequest.get("title"), (String) parsedRequest.get("tag"), sync);
+	}
+
+	/**
+	 * Tags many Books with one request. The body is a JSON array of objects holding a title, a tag and optionally the
+	 * count of times to add the tag (1 if left out). Entries are grouped by title so each Book is copied and logged
+	 * once for all its tags, and the whole batch is queued as one change, so it is synced at most once.
+	 *
+	 * @param tagsJSON The JSON array of entries
+	 * @param sync True if the changes must be on disk before responding
+	 * @return A JSON array holding the result of each entry in order: the entry with ok set to true, or to false along
+	 * with an error if the entry was invalid, its count and the earlier counts of the same tag for the same Book add up
+	 * to more than an int holds, or its Book isn't stored
+	 */
+	@PutMapping("/tag/batch")
+	public CompletableFuture<ResponseEntity<String>> tagBooks(@RequestBody String tagsJSON,
+															  @RequestParam(defaultValue = "false") boolean sync)
+			throws ParseException {
+		ArrayList<Object> entries = new JSONParser(tagsJSON).parseArray();
+		JSONObject[] results = new JSONObject[entries.size()];
+		//The tags to add to each Book, and the entries they came from
+		LinkedHashMap<String, LinkedHashMap<String, Integer>> tagCounts = new LinkedHashMap<>();
+		HashMap<String, List<JSONObject>> resultsByTitle = new HashMap<>();
+
+		for(int i = 0; i < results.length; i++){
+			Map<?, ?> entry = (entries.get(i) instanceof Map<?, ?> map) ? map : Map.of();
+			Object title = entry.get("title");
+			Object tag = entry.get("tag");
+			Object count = entry.containsKey("count") ? entry.get("count") : BigInteger.ONE;
+
+			results[i] = new JSONObject();
+			results[i].put("title", title);
+			results[i].put("tag", tag);
+			results[i].put("count", count);
+
+			if(!(title instanceof String) || !(tag instanceof String) || !(count instanceof BigInteger)
+					|| ((BigInteger) count).signum() <= 0 || ((BigInteger) count).bitLength() >= Integer.SIZE){
+				results[i].put("ok", false);
+				results[i].put("error", "Entries need a title, a tag and a positive whole count");
+				continue;
+			}
+			//Sum in a long so entries repeating a tag can't wrap its count around to a negative weight
+			LinkedHashMap<String, Integer> counts = tagCounts.get(title);
+			long total = ((counts == null) ? 0 : counts.getOrDefault(tag, 0)) + ((BigInteger) count).longValue();
+			if(total > Integer.MAX_VALUE){
+				results[i].put("ok", false);
+				results[i].put("error", "The counts of " + tag + " for " + title + " add up to more than "
+						+ Integer.MAX_VALUE);
+				continue;
+			}
+			tagCounts.computeIfAbsent((String) title, t -> new LinkedHashMap<>()).put((String) tag, (int) total);
+			resultsByTitle.computeIfAbsent((String) title, t -> new ArrayList<>()).add(results[i]);
+		}
 
-		storedBooks.tagBook((String) parsedRequest.get("title"), (String) parsedRequest.get("tag"));
+		return mutations.submit(storage -> tagCounts.forEach((title, counts) -> {
+			String error = null;
+			try{
+				storage.tagBook(title, counts);
+			}
+			catch(IllegalArgumentException e){
+				error = e.getMessage();
+			}
 
-		storedBooks.saveBooks("Test.json");
+			for(JSONObject result : resultsByTitle.get(title)){
+				result.put("ok", error == null);
+				if(error != null){
+					result.put("error", error);
+				}
+			}
+		}), sync).thenApply(done -> ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+				.body(new JSONArray(results).toString()));
 	}
 
 
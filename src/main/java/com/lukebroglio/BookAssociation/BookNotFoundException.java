@@ -0,0 +1,17 @@
+package com.lukebroglio.BookAssociation;
+
+/**
+ * Thrown when a change names a Book that isn't stored
+ *
+ * @author Luke Broglio
+ */
+public class BookNotFoundException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param title The title no Book is stored with
+     */
+    public BookNotFoundException(String title){
+        super("No Book is stored with the title " + title);
+    }
+}
@@ -1,111 +1,105 @@
 package com.lukebroglio.BookAssociation;
 
-import org.apache.tomcat.util.json.JSONParser;
-import org.apache.tomcat.util.json.ParseException;
-import org.json.JSONArray;
-import org.json.JSONObject;
-
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
+import java.io.Closeable;
 import java.io.IOException;
-import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.Scanner;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Handles storing all the Books in the programs data while it is running. Responsible for handling the association \
- * of Books to each other. Also handles reading the List of Books in and out.
+ * Stores the catalog of Books while the program runs and answers the queries the endpoints make of it. Implemented by
+ * {@link MemoryBookStorage}, which holds the catalog on the heap, and by {@link SqlBookStorage}, which keeps it in a
+ * database. Settings that only make sense for one of them are set on that class before it is opened.
+ *
+ * @author Luke Broglio
  */
-public class BookStorage {
+public interface BookStorage extends Closeable {
     /**
-     * Storage for all the Books. Stores the {@link Book} objects associated with their title.
+     * The result of an approximate related query
+     *
+     * @param related The related Books found, ordered by their exact similarity ranking
+     * @param candidates The number of candidate Books the approximate index found and re-ranked
+     * @param micros The time the query took in microseconds
      */
-    private final HashMap<String, Book> bookMap;
-
-    BookStorage(){
-        bookMap = new HashMap<>();
-    }
+    record ApproximateRelated(WeightedList<Book> related, int candidates, long micros) {}
 
     /**
-     * Reads a List of {@link Book}s from a JSON file. Stores it in the bookMap
+     * Compares an approximate related query with the exact query for the same Book
      *
-     * @param filePath The path to the file to read from
-     * @throws FileNotFoundException Throws if the given filePath is invalid
-     * @throws ParseException        Thrown by the JSONParser
+     * @param recall The fraction of the exact related Books the approximate query also found
+     * @param candidates The number of candidate Books the approximate index found and re-ranked
+     * @param approximateMicros The time the approximate query took in microseconds
+     * @param exactMicros The time the exact query took in microseconds
      */
-    //This is necessary for interacting with the JSON files.
-    @SuppressWarnings("unchecked")
-    public void readInBooks(String filePath) throws FileNotFoundException, ParseException {
-        //Loads the entire JSON file into a string
-        String booksJson = new Scanner(new File(filePath)).useDelimiter("\\Z").next();
-
-        //Parse the read JSON
-        JSONParser parser = new JSONParser(booksJson);
-        ArrayList<Object> parsedArr = parser.parseArray();
-
-        //Get the books array from the parsed JSON
-        ArrayList<Object> booksArr = (ArrayList<Object>) parsedArr.get(0);
+    record RecallReport(double recall, int candidates, long approximateMicros, long exactMicros) {}
 
-        //Parse the Map holding the weight of the tags
-        HashMap<String,HashMap<String, BigInteger>> tagWeight = (HashMap<String, HashMap<String, BigInteger>>) parsedArr.get(1);
+    /**
+     * Loads the catalog saved at the given path, treating a missing file as an empty catalog
+     *
+     * @param snapshotFile Path to a catalog in the format written by {@link MemoryBookStorage#saveBooks} or
+     *                     {@link #saveBinaryCatalog}
+     * @throws IOException Thrown if the catalog can't be read
+     */
+    void open(String snapshotFile) throws IOException;
 
-        //Load the books into the storage map associated with their titles
-        for (Object o : booksArr) {
-            Book tmp = new Book((LinkedHashMap<Object, Object>) o,tagWeight);
-            bookMap.put(tmp.getTitle(),tmp);
-        }
-    }
+    /**
+     * Adds a new {@link Book} to the catalog. If a Book with the same title was already stored it is replaced.
+     *
+     * @param toAdd The Book to add
+     */
+    void addBook(Book toAdd);
 
     /**
-     * Writes the Books currently stored by this object to a specified file in  JSON format
-     * @param saveFile Path to the file to write the JSON to
-     * @throws IOException Thrown if the file could be opened
+     * Adds many {@link Book}s at once, as {@link #addBook} would one at a time
+     *
+     * @param toAdd The Books to add, in order. A later Book replaces an earlier one with the same title
      */
-    public void saveBooks(String saveFile) throws IOException {
-        //Holds the JSON Object Books
-        JSONArray bookJson = new JSONArray();
-        //Standard Array of all the books in this object
-        Book[] bookArray = bookMap.values().toArray(new Book[0]);
-        //Associates each books with a Map storing the weight of its tags
-        HashMap<String,HashMap<String,Integer>> tagWeights = new HashMap<>();
+    void addBooks(List<Book> toAdd);
 
-        //For every book
-        for(int i=0; i < bookMap.size(); i++){
-            //Add the Book to its array
-            bookJson.put(new JSONObject(bookArray[i]));
-            //Put an entry to store its tags weight
-            tagWeights.put(bookArray[i].getTitle(),new HashMap<>());
+    /**
+     * Adds a tag to the Book with the given title
+     *
+     * @param title The title of the Book to tag
+     * @param tag The tag to add or to increase the weight of
+     * @throws BookNotFoundException Thrown if no Book has the title
+     */
+    void tagBook(String title, String tag);
 
-            //For every tag
-            WeightedList<String> currTags = bookArray[i].getTags();
+    /**
+     * Adds several tags to the Book with the given title at once, each the given number of times
+     *
+     * @param title The title of the Book to tag
+     * @param tagCounts Associates each tag to add with the number of times to add it. Every count must be positive
+     * @throws BookNotFoundException Thrown if no Book has the title
+     * @throws IllegalArgumentException Thrown if a count isn't positive
+     */
+    void tagBook(String title, Map<String, Integer> tagCounts);
 
-            for(int j =0; j <currTags.size(); j++){
-                //Associate the tag with its weight
-                tagWeights.get(bookArray[i].getTitle()).put(currTags.get(j),currTags.getWeight(j));
-            }
-        }
-        //Add the Book array and Tag Map to a JSON array
-        JSONArray combinedJSON = new JSONArray();
-        combinedJSON.put(bookJson);
-        combinedJSON.put(new JSONObject(tagWeights));
+    /**
+     * @param title String storing the title of the book to get
+     * @return The {@link Book} object of the requested Book, or null if no Book has the title
+     */
+    Book getBook(String title);
 
-        //Write the JSON to a file
-        FileWriter outputFile = new FileWriter(saveFile);
-        outputFile.write(combinedJSON.toString());
+    /**
+     * @return Every Book in the catalog
+     */
+    Book[] getAllBooks();
 
-        outputFile.close();
-    }
+    /**
+     * Gets one page of the catalog in order of title. Passing the title of the last Book of a page as after gets the
+     * next page.
+     *
+     * @param after The title to start after, or null to start at the first Book
+     * @param limit The maximum number of Books to return
+     * @return The next limit Books in order of title. Fewer than limit are returned only at the end of the catalog
+     */
+    List<Book> getBooksAfter(String after, int limit);
 
     /**
-     * Adds a new {@link Book} to this Storage object's map.
-     * @param toAdd The Book to add
+     * @return A number that changes whenever the catalog changes. Responses built from the catalog can be tagged with
+     * it and reused until it changes
      */
-    public void addBook(Book toAdd){
-        bookMap.put(toAdd.getTitle(),toAdd);
-    }
+    long catalogVersion();
 
     /**
      * Gets a {@link WeightedList} of Books related to this one. Books are weighted by their similarity ranking
@@ -114,37 +108,114 @@ public class BookStorage {
      * @param startingPoint The {@link Book} to find books related to.
      * @return A list of Books ordered by their similarity ranking
      */
-    public WeightedList<Book> getRelated(Book startingPoint) {
-        Book[] allBooks = bookMap.values().toArray(new Book[0]);
-        WeightedList<Book> relatedBooks = new WeightedList<>();
+    default WeightedList<Book> getRelated(Book startingPoint) {
+        return getRelated(startingPoint, Integer.MAX_VALUE);
+    }
 
-        for (int i = 0; i < bookMap.size(); i++) {
-            int similarityRank = startingPoint.getSimilarityRanking(allBooks[i]);
-            if(similarityRank != 0 && !allBooks[i].equals(startingPoint)){
-                relatedBooks.addWithWeight(allBooks[i], similarityRank);
-            }
+    /**
+     * Gets a {@link WeightedList} of the limit Books most related to this one. Books are weighted by their similarity
+     * ranking (determined by {@link Book#getSimilarityRanking}). The returned list may be shared with other callers and
+     * must not be modified.
+     *
+     * @param startingPoint The {@link Book} to find books related to.
+     * @param limit The maximum number of Books to return
+     * @return A list of at most limit Books ordered by their similarity ranking
+     */
+    WeightedList<Book> getRelated(Book startingPoint, int limit);
+
+    /**
+     * Gets the limit Books most related to this one as scored by the given {@link SimilarityScorer}
+     *
+     * @param startingPoint The {@link Book} to find books related to.
+     * @param limit The maximum number of Books to return
+     * @param scorer The scorer used to rank the Books
+     * @return A list of at most limit Books ordered by their score
+     */
+    WeightedList<Book> getRelated(Book startingPoint, int limit, SimilarityScorer scorer);
+
+    /**
+     * Gets the limit Books most related to this one using an approximate index, which may miss Books with little tag
+     * overlap
+     *
+     * @param startingPoint The {@link Book} to find books related to.
+     * @param limit The maximum number of Books to return
+     * @return The related Books found along with the number of candidates scored and the time taken
+     */
+    ApproximateRelated getRelatedApproximate(Book startingPoint, int limit);
+
+    /**
+     * @return True if {@link #getRelatedApproximate} uses an approximate index, false if it falls back to the exact
+     * query
+     */
+    boolean hasApproximateIndex();
+
+    /**
+     * Runs an approximate and an exact related query for the same Book and reports how many of the exact results the
+     * approximate query found. Used to tune the approximate index.
+     *
+     * @param startingPoint The {@link Book} to find books related to.
+     * @param limit The maximum number of Books to compare
+     * @return The recall of the approximate query and the time each query took
+     */
+    default RecallReport measureRecall(Book startingPoint, int limit) {
+        ApproximateRelated approximate = getRelatedApproximate(startingPoint, limit);
 
+        long start = System.nanoTime();
+        WeightedList<Book> exact = getRelated(startingPoint, limit);
+        long exactMicros = (System.nanoTime() - start) / 1000;
+
+        int found = 0;
+        for(Book book : exact){
+            if(approximate.related().contains(book)){
+                found++;
+            }
         }
+        double recall = exact.isEmpty() ? 1.0 : (double) found / exact.size();
 
-        return relatedBooks;
+        return new RecallReport(recall, approximate.candidates(), approximate.micros(), exactMicros);
     }
 
     /**
-     * Gets a Book with the given title from the map
+     * Compares every pair of stored Books on all cores and keeps the topN most related Books of each. Meant to be run as
+     * an offline batch job, with the result written to a file and loaded by servers with {@link #setSimilarityMatrix}.
      *
-     * @param title String storing the title of the book to get
-     * @return The {@link Book} object of the requested Book
+     * @param topN The number of related Books to keep for each Book
+     * @return The computed {@link SimilarityMatrix}
      */
-    public Book getBook(String title){
-        return bookMap.get(title);
+    default SimilarityMatrix computeSimilarityMatrix(int topN) {
+        return SimilarityMatrix.compute(getAllBooks(), topN);
     }
 
-    public Book[] getAllBooks(){
-        return bookMap.values().toArray(new Book[0]);
-    }
+    /**
+     * Sets the precomputed related lists used by {@link #getRelatedPrecomputed}
+     *
+     * @param similarityMatrix The precomputed related lists, or null to stop using them
+     */
+    void setSimilarityMatrix(SimilarityMatrix similarityMatrix);
 
-    public void tagBook(String title, String tag){
-        bookMap.get(title).addTag(tag);
-    }
+    /**
+     * Gets the limit Books most related to this one from the precomputed {@link SimilarityMatrix}. The lists reflect the
+     * catalog as it was when the matrix was computed. Falls back to {@link #getRelated(Book, int)} if no matrix is
+     * loaded or the Book isn't in it.
+     *
+     * @param startingPoint The {@link Book} to find books related to.
+     * @param limit The maximum number of Books to return
+     * @return A list of at most limit Books ordered by their similarity ranking
+     */
+    WeightedList<Book> getRelatedPrecomputed(Book startingPoint, int limit);
 
+    /**
+     * Writes the Books currently stored to a {@link BinaryCatalog} file, ready to be opened with {@link #open}
+     *
+     * @param saveFile Path to the file to write
+     * @throws IOException Thrown if the file can't be written
+     */
+    void saveBinaryCatalog(String saveFile) throws IOException;
+
+    /**
+     * Waits until every change made so far is on disk
+     *
+     * @throws IOException Thrown if the changes can't be written
+     */
+    void sync() throws IOException;
 }
@@ -0,0 +1,194 @@
+package com.lukebroglio.BookAssociation;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.Consumer;
+
+/**
+ * Reads a catalog saved by {@link MemoryBookStorage#saveBooks} one token at a time. Books are built straight from the
+ * tokens of their fields, so neither the text of the file nor a generic tree of the parsed JSON is ever held in memory.
+ * <p>
+ * The saved catalog lists the Books first and the weights of their tags second, so each Book is held (without its
+ * tags) until its weights arrive. Books are handed over once the whole catalog has been read.
+ *
+ * @author Luke Broglio
+ */
+public class CatalogReader {
+    /**
+     * Creates the streaming parsers
+     */
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    /**
+     * The Books read so far associated with their titles
+     */
+    private final HashMap<String, Book> books = new HashMap<>();
+    /**
+     * The sequence number of the last logged change the catalog includes, or 0 if it doesn't record one
+     */
+    private long lastLogSequence;
+
+    /**
+     * Reads every Book in a saved catalog
+     *
+     * @param file The file to read
+     * @param sink Given every Book in the catalog along with its tags
+     * @return The sequence number of the last logged change the catalog includes, or 0 if it doesn't record one
+     * @throws IOException Thrown if the file can't be read or isn't a saved catalog
+     */
+    public static long read(Path file, Consumer<Book> sink) throws IOException {
+        CatalogReader reader = new CatalogReader();
+
+        try(JsonParser parser = FACTORY.createParser(file.toFile())){
+            reader.readCatalog(parser);
+        }
+        reader.books.values().forEach(sink);
+
+        return reader.lastLogSequence;
+    }
+
+    /**
+     * Reads the top level array holding the Books, their tag weights and the log position
+     *
+     * @param parser The parser positioned before the array
+     * @throws IOException Thrown if the catalog can't be read
+     */
+    private void readCatalog(JsonParser parser) throws IOException {
+        expect(parser, parser.nextToken(), JsonToken.START_ARRAY);
+
+        expect(parser, parser.nextToken(), JsonToken.START_ARRAY);
+        while(parser.nextToken() != JsonToken.END_ARRAY){
+            Book book = readBook(parser);
+            books.put(book.getTitle(), book);
+        }
+
+        expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+        while(parser.nextToken() == JsonToken.FIELD_NAME){
+            readTagWeights(parser, books.get(parser.getCurrentName()));
+        }
+
+        //Catalogs saved before the mutation log existed stop here
+        if(parser.nextToken() == JsonToken.START_OBJECT){
+            while(parser.nextToken() == JsonToken.FIELD_NAME){
+                String field = parser.getCurrentName();
+                parser.nextToken();
+
+                if(field.equals("lastLogSequence")){
+                    lastLogSequence = parser.getLongValue();
+                }
+                else{
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads one Book without its tags
+     *
+     * @param parser The parser positioned at the start of the Book's object
+     * @return The Book read
+     * @throws IOException Thrown if the Book can't be read
+     */
+    private static Book readBook(JsonParser parser) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+
+        String title = null;
+        String publisher = null;
+        LocalDate publicationDate = null;
+        ArrayList<Author> authors = new ArrayList<>();
+
+        while(parser.nextToken() == JsonToken.FIELD_NAME){
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            switch(field){
+                case "title" -> title = parser.getText();
+                case "publisher" -> publisher = (value == JsonToken.VALUE_NULL) ? null : parser.getText();
+                case "publicationDate" -> publicationDate = LocalDate.parse(parser.getText());
+                case "authors" -> {
+                    expect(parser, value, JsonToken.START_ARRAY);
+                    while(parser.nextToken() != JsonToken.END_ARRAY){
+                        authors.add(readAuthor(parser));
+                    }
+                }
+                //Tags are read from the tag weights, which hold every tag along with its weight
+                default -> parser.skipChildren();
+            }
+        }
+
+        if(title == null){
+            throw new JsonParseException(parser, "Book without a title");
+        }
+        return new Book(title, publisher, publicationDate, authors);
+    }
+
+    /**
+     * Reads one Author
+     *
+     * @param parser The parser positioned at the start of the Author's object
+     * @return The Author read
+     * @throws IOException Thrown if the Author can't be read
+     */
+    private static Author readAuthor(JsonParser parser) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+        HashMap<String, String> names = new HashMap<>();
+
+        while(parser.nextToken() == JsonToken.FIELD_NAME){
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            if(value == JsonToken.VALUE_STRING){
+                names.put(field, parser.getText());
+            }
+            else{
+                parser.skipChildren();
+            }
+        }
+
+        return new Author(names.get("firstName"), names.get("lastName"), names.get("middleName"), names.get("title"),
+                names.get("suffix"));
+    }
+
+    /**
+     * Reads the tag weights of one Book and gives them to it
+     *
+     * @param parser The parser positioned at the title the weights belong to
+     * @param book The Book with that title, or null if the catalog doesn't list one
+     * @throws IOException Thrown if the weights can't be read
+     */
+    private static void readTagWeights(JsonParser parser, Book book) throws IOException {
+        expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+        while(parser.nextToken() == JsonToken.FIELD_NAME){
+            String tag = parser.getCurrentName();
+            parser.nextToken();
+
+            if(book != null){
+                book.setTagWeight(tag, parser.getIntValue());
+            }
+        }
+    }
+
+    /**
+     * Checks that the parser is at the expected token
+     *
+     * @param parser The parser being read
+     * @param actual The token the parser is at
+     * @param expected The token that should be there
+     * @throws JsonParseException Thrown if the tokens differ
+     */
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if(actual != expected){
+            throw new JsonParseException(parser, "Expected " + expected + " but found " + actual);
+        }
+    }
+}
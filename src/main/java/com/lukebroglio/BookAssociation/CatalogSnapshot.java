@@ -0,0 +1,176 @@
+package com.lukebroglio.BookAssociation;
+
+import java.util.function.BiConsumer;
+
+/**
+ * One version of the catalog: every stored Book associated with its title, and the inverted index of their tags. A
+ * snapshot is never changed. A change builds the next version with {@link #with}, which shares every Book and every
+ * tag's postings the change didn't touch with this one, so readers can hold on to a snapshot for a whole query and see
+ * one consistent catalog without taking any lock.
+ * <p>
+ * The Books in a snapshot must not be tagged in place; {@link MemoryBookStorage} stores a tagged copy instead.
+ *
+ * @author Luke Broglio
+ */
+public final class CatalogSnapshot implements SimilarityScorer.CatalogStatistics {
+    /**
+     * The catalog with no Books
+     */
+    static final CatalogSnapshot EMPTY = new CatalogSnapshot(0, PersistentMap.empty(), PersistentMap.empty());
+
+    /**
+     * Counts the changes made to the catalog up to this version
+     */
+    private final long version;
+    /**
+     * Every Book associated with its title
+     */
+    private final PersistentMap<String, Book> books;
+    /**
+     * Associates each tag with the titles of the Books that have it, weighted by how many times each Book has been given
+     * the tag
+     */
+    private final PersistentMap<String, PersistentMap<String, Integer>> postings;
+
+    /**
+     * @param version Counts the changes made to the catalog up to this version
+     * @param books Every Book associated with its title
+     * @param postings The postings of every tag
+     */
+    private CatalogSnapshot(long version, PersistentMap<String, Book> books,
+                            PersistentMap<String, PersistentMap<String, Integer>> postings){
+        this.version = version;
+        this.books = books;
+        this.postings = postings;
+    }
+
+    /**
+     * @return A number that is higher for every later version of the catalog
+     */
+    public long version(){
+        return version;
+    }
+
+    /**
+     * @return The number of Books in this version of the catalog
+     */
+    public int size(){
+        return books.size();
+    }
+
+    /**
+     * @param title The title of a Book
+     * @return The Book with the title, or null if no Book has it
+     */
+    public Book book(String title){
+        return books.get(title);
+    }
+
+    /**
+     * @return Every Book in this version of the catalog, in no particular order
+     */
+    public Book[] books(){
+        Book[] array = new Book[books.size()];
+        int[] filled = {0};
+        books.forEach((title, book) -> array[filled[0]++] = book);
+        return array;
+    }
+
+    /**
+     * @param tag A tag
+     * @return The titles of the Books with the tag weighted by the tag's weight in each. Empty if no Book has the tag
+     */
+    public PersistentMap<String, Integer> postings(String tag){
+        PersistentMap<String, Integer> taggedBooks = postings.get(tag);
+        return (taggedBooks == null) ? PersistentMap.empty() : taggedBooks;
+    }
+
+    /**
+     * Calls the given action with every tag given to a Book and its postings
+     *
+     * @param action The action to run for each tag
+     */
+    public void forEachTag(BiConsumer<String, PersistentMap<String, Integer>> action){
+        postings.forEach(action);
+    }
+
+    @Override
+    public int catalogSize(){
+        return books.size();
+    }
+
+    @Override
+    public int documentFrequency(int tagId){
+        String tag = TagDictionary.tagOf(tagId);
+        return (tag == null) ? 0 : postings(tag).size();
+    }
+
+    /**
+     * Builds the next version of the catalog with a Book added, replacing any Book with the same title. Only the postings
+     * of tags whose weight differs between the Book and the one it replaces are copied
+     *
+     * @param book The Book to store. Must not be changed afterwards
+     * @return The next version of the catalog
+     */
+    CatalogSnapshot with(Book book){
+        String title = book.getTitle();
+        Book replaced = books.get(title);
+        PostingsEdit newPostings = new PostingsEdit(postings);
+
+        if(replaced != null){
+            replaced.forEachTag((tag, weight) -> {
+                if(!book.hasTag(tag)){
+                    newPostings.remove(tag, title);
+                }
+            });
+        }
+        book.forEachTag((tag, weight) -> {
+            if(replaced == null || replaced.tagNumber(tag) != weight){
+                newPostings.put(tag, title, weight);
+            }
+        });
+
+        return new CatalogSnapshot(version + 1, books.with(title, book), newPostings.postings);
+    }
+
+    /**
+     * Collects the changes {@link #with} makes to the postings while it walks a Book's tags
+     */
+    private static final class PostingsEdit {
+        /**
+         * The postings with every change made so far
+         */
+        private PersistentMap<String, PersistentMap<String, Integer>> postings;
+
+        /**
+         * @param postings The postings to start from
+         */
+        private PostingsEdit(PersistentMap<String, PersistentMap<String, Integer>> postings){
+            this.postings = postings;
+        }
+
+        /**
+         * Removes a title from the postings of a tag, dropping the tag once no title has it
+         *
+         * @param tag The tag to remove the title from
+         * @param title The title to remove
+         */
+        private void remove(String tag, String title){
+            PersistentMap<String, Integer> remaining = postings.get(tag).without(title);
+            postings = remaining.isEmpty() ? postings.without(tag) : postings.with(tag, remaining);
+        }
+
+        /**
+         * Sets the weight of a title in the postings of a tag
+         *
+         * @param tag The tag to add the title to
+         * @param title The title to add
+         * @param weight The number of times the Book with the title has the tag
+         */
+        private void put(String tag, String title, int weight){
+            PersistentMap<String, Integer> taggedBooks = postings.get(tag);
+            taggedBooks = (taggedBooks == null) ? PersistentMap.empty() : taggedBooks;
+            postings = postings.with(tag, taggedBooks.with(title, weight));
+        }
+    }
+}
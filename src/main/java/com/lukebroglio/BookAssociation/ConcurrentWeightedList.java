@@ -0,0 +1,155 @@
+package com.lukebroglio.BookAssociation;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A thread safe counterpart to {@link WeightedList}. Each item's weight is held in its own atomic counter so any number
+ * of threads can add items and increment weights at once without locking. The ordered view used for array style
+ * indexing is only built when a reader asks for it with {@link #snapshot()}, and is reused until the weights change.
+ *
+ * @author Luke Broglio
+ * @param <T> The type of data this list stores
+ */
+public class ConcurrentWeightedList<T> {
+    /**
+     * Holds an ordered copy of the list along with the version of the list it was built from
+     *
+     * @param version The modification count of the list when the copy was started
+     * @param ordered The items of the list ordered by their weight
+     * @param <T> The type of data the list stores
+     */
+    private record Snapshot<T>(long version, WeightedList<T> ordered) {}
+
+    /**
+     * Associates every item in this list with a counter holding its weight
+     */
+    private final ConcurrentHashMap<T, AtomicInteger> weights;
+    /**
+     * Counts the modifications made to this list. Used to tell when a snapshot is out of date
+     */
+    private final AtomicLong version;
+    /**
+     * The most recently built ordered copy of this list
+     */
+    private volatile Snapshot<T> snapshot;
+
+    /**
+     * Constructs a new empty ConcurrentWeightedList
+     */
+    public ConcurrentWeightedList(){
+        weights = new ConcurrentHashMap<>();
+        version = new AtomicLong();
+        snapshot = new Snapshot<>(0, new WeightedList<>());
+    }
+
+    /**
+     * Increases the weight of the given item by the given amount, adding it with that weight if it isn't already in
+     * the list
+     *
+     * @param t The item to increase the weight of
+     * @param amount The amount to increase its weight by
+     *
+     * @return The weight of the item after increasing it
+     * @throws ArithmeticException Thrown, leaving the weight unchanged, if the new weight would overflow an int
+     */
+    public int increment(T t, int amount){
+        AtomicInteger counter = weights.get(t);
+
+        if(counter == null){
+            counter = weights.putIfAbsent(t, new AtomicInteger(amount));
+            if(counter == null){
+                version.incrementAndGet();
+                return amount;
+            }
+        }
+
+        int weight = counter.accumulateAndGet(amount, Math::addExact);
+        version.incrementAndGet();
+        return weight;
+    }
+
+    /**
+     * Sets the weight of the given item, adding it if it isn't already in the list
+     *
+     * @param t The item to set the weight of
+     * @param newWeight The new weight of the item
+     */
+    public void setWeight(T t, int newWeight){
+        weights.computeIfAbsent(t, k -> new AtomicInteger()).set(newWeight);
+        version.incrementAndGet();
+    }
+
+    /**
+     * Checks to see if the given item is in this list
+     *
+     * @param o The item to look for
+     *
+     * @return True if the item is in the list false if it isn't
+     */
+    public boolean contains(Object o){
+        return weights.containsKey(o);
+    }
+
+    /**
+     * Returns the weight of the given element
+     *
+     * @param element The element to get the weight of
+     *
+     * @return The weight of the element or 0 if it isn't in the list
+     */
+    public int getWeightOf(Object element){
+        AtomicInteger counter = weights.get(element);
+
+        return (counter == null) ? 0 : counter.get();
+    }
+
+    /**
+     * @return The number of items in this list
+     */
+    public int size(){
+        return weights.size();
+    }
+
+    /**
+     * @return The number of modifications made to this list. Changes whenever an item or weight changes
+     */
+    public long version(){
+        return version.get();
+    }
+
+    /**
+     * Calls the given action with every item in this list and its current weight. Items are given in no particular
+     * order and weights changed by other threads during the call may or may not be seen.
+     *
+     * @param action The action to run for each item
+     */
+    public void forEach(ObjIntConsumer<? super T> action){
+        weights.forEach((item, counter) -> action.accept(item, counter.get()));
+    }
+
+    /**
+     * Gives the items of this list ordered by weight. The ordered copy is only rebuilt if the list has changed since the
+     * last call, so repeated reads are free. The returned list is shared between callers and must not be modified.
+     *
+     * @return A {@link WeightedList} holding the items and weights of this list
+     */
+    public WeightedList<T> snapshot(){
+        Snapshot<T> current = snapshot;
+        long currentVersion = version.get();
+
+        if(current.version() == currentVersion){
+            return current.ordered();
+        }
+
+        WeightedList.Builder<T> copy = new WeightedList.Builder<>(weights.size());
+        forEach(copy::add);
+
+        //Record the version read before copying so changes made during the copy cause a rebuild next time
+        Snapshot<T> rebuilt = new Snapshot<>(currentVersion, copy.build());
+        snapshot = rebuilt;
+        return rebuilt.ordered();
+    }
+}
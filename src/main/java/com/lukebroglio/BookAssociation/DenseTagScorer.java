@@ -0,0 +1,215 @@
+package com.lukebroglio.BookAssociation;
+
+import java.util.Arrays;
+
+/**
+ * Scores a Book against the whole catalog using a dense layout for the most frequently used tags. The weights of the
+ * catalog's most frequent tags are stored for every Book in one flat int array (a row per Book) so they can be
+ * multiplied and summed many lanes at a time with the Vector API. Weights of the remaining tags are kept in a sparse
+ * {@link TagVector} per Book and added on with a merge-join. Scores are the same as {@link Book#getSimilarityRanking}.
+ * <p>
+ * The Vector API kernel is only built by the vector Maven profile and is used when the jdk.incubator.vector module is
+ * enabled (run with --add-modules jdk.incubator.vector), otherwise a scalar loop is used.
+ * <p>
+ * A DenseTagScorer is a snapshot of the catalog and is not updated when Books change.
+ *
+ * @author Luke Broglio
+ */
+public class DenseTagScorer {
+    /**
+     * Computes the dot products of a query row with every row of a dense block
+     */
+    interface DotKernel {
+        /**
+         * @param query The query row. Has width entries
+         * @param block The rows to score, stored one after another
+         * @param width The number of entries in each row. A multiple of {@link #ROW_PADDING}
+         * @param rows The number of rows in the block
+         * @param out Receives the dot product of the query with each row
+         */
+        void dotRows(int[] query, int[] block, int width, int rows, int[] out);
+    }
+
+    /**
+     * Computes dot products one entry at a time. Used when the Vector API isn't available
+     */
+    static final class ScalarKernel implements DotKernel {
+        @Override
+        public void dotRows(int[] query, int[] block, int width, int rows, int[] out){
+            for(int row = 0; row < rows; row++){
+                int offset = row * width;
+                int sum = 0;
+
+                for(int i = 0; i < width; i++){
+                    sum += query[i] * block[offset + i];
+                }
+                out[row] = sum;
+            }
+        }
+    }
+
+    /**
+     * Rows are padded to a multiple of this many entries so any vector species up to 512 bits divides them evenly
+     */
+    static final int ROW_PADDING = 16;
+    /**
+     * The kernel used to score dense rows
+     */
+    static final DotKernel KERNEL = loadKernel();
+
+    /**
+     * The Books scored by this scorer. The dense row of books[i] starts at block[i * width]
+     */
+    private final Book[] books;
+    /**
+     * The number of entries in each dense row
+     */
+    private final int width;
+    /**
+     * The dense weights of every Book's frequent tags, one row per Book
+     */
+    private final int[] block;
+    /**
+     * The weights of every Book's tags that don't have a dense column
+     */
+    private final TagVector[] residuals;
+    /**
+     * The dense column of each tag id, or -1 for tags without a column
+     */
+    private final int[] columnOfId;
+    /**
+     * The version of the catalog this scorer was built from
+     */
+    private final long version;
+
+    /**
+     * Loads the Vector API kernel if it was built and its module is enabled, falling back to the scalar kernel otherwise
+     *
+     * @return The kernel to use
+     */
+    private static DotKernel loadKernel(){
+        if(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()){
+            try{
+                return (DotKernel) Class.forName("com.lukebroglio.BookAssociation.VectorDotKernel")
+                        .getDeclaredConstructor().newInstance();
+            }
+            catch(ReflectiveOperationException | LinkageError e){
+                return new ScalarKernel();
+            }
+        }
+        return new ScalarKernel();
+    }
+
+    /**
+     * Lays out the given Books with the given tags in dense columns
+     *
+     * @param books The Books to score
+     * @param denseIds The ids of the tags to give dense columns
+     * @param version The version of the catalog the Books were read from
+     */
+    private DenseTagScorer(Book[] books, int[] denseIds, long version){
+        this.books = books;
+        this.version = version;
+        this.width = Math.max(ROW_PADDING, (denseIds.length + ROW_PADDING - 1) / ROW_PADDING * ROW_PADDING);
+        this.block = new int[books.length * width];
+        this.residuals = new TagVector[books.length];
+
+        int maxId = 0;
+        for(int id : denseIds){
+            maxId = Math.max(maxId, id);
+        }
+        this.columnOfId = new int[maxId + 1];
+        Arrays.fill(columnOfId, -1);
+        for(int i = 0; i < denseIds.length; i++){
+            columnOfId[denseIds[i]] = i;
+        }
+
+        for(int i = 0; i < books.length; i++){
+            residuals[i] = split(books[i].tagVector(), block, i * width);
+        }
+    }
+
+    /**
+     * Builds a DenseTagScorer for the Books in a version of the catalog giving dense columns to the most frequently used
+     * tags
+     *
+     * @param catalog The version of the catalog to score. Its tag index is used to find how many Books use each tag
+     * @param denseTags The maximum number of tags to give dense columns
+     * @return A new DenseTagScorer
+     */
+    static DenseTagScorer build(CatalogSnapshot catalog, int denseTags){
+        TopKSelector<String> frequentTags = new TopKSelector<>(denseTags);
+        catalog.forEachTag((tag, taggedBooks) -> frequentTags.offer(tag, taggedBooks.size()));
+
+        WeightedList<String> chosen = frequentTags.toWeightedList();
+        int[] denseIds = new int[chosen.size()];
+        for(int i = 0; i < denseIds.length; i++){
+            denseIds[i] = TagDictionary.idOf(chosen.get(i));
+        }
+
+        return new DenseTagScorer(catalog.books(), denseIds, catalog.version());
+    }
+
+    /**
+     * Writes the weights of a vector's dense tags into a row and returns the rest as a new sparse vector
+     *
+     * @param vector The vector to split
+     * @param row The array to write the dense weights into
+     * @param offset The index in row the dense weights start at
+     * @return A TagVector holding the tags of vector without a dense column
+     */
+    private TagVector split(TagVector vector, int[] row, int offset){
+        int[] ids = new int[vector.size()];
+        int[] weights = new int[vector.size()];
+        int residualCount = 0;
+
+        for(int i = 0; i < vector.size(); i++){
+            int id = vector.idAt(i);
+            int column = (id < columnOfId.length) ? columnOfId[id] : -1;
+
+            if(column >= 0){
+                row[offset + column] = vector.weightAt(i);
+            }
+            else{
+                ids[residualCount] = id;
+                weights[residualCount] = vector.weightAt(i);
+                residualCount++;
+            }
+        }
+
+        return TagVector.ofSorted(Arrays.copyOf(ids, residualCount), Arrays.copyOf(weights, residualCount));
+    }
+
+    /**
+     * @return The version of the catalog this scorer was built from
+     */
+    long version(){
+        return version;
+    }
+
+    /**
+     * Scores every Book against the given Book and keeps the limit most related
+     *
+     * @param startingPoint The Book to find Books related to
+     * @param limit The maximum number of Books to keep
+     * @return The limit Books with the highest non zero similarity ranking, excluding startingPoint
+     */
+    TopKSelector<Book> related(Book startingPoint, int limit){
+        int[] query = new int[width];
+        TagVector queryResidual = split(startingPoint.tagVector(), query, 0);
+
+        int[] scores = new int[books.length];
+        KERNEL.dotRows(query, block, width, books.length, scores);
+
+        TopKSelector<Book> selected = new TopKSelector<>(limit);
+        for(int i = 0; i < books.length; i++){
+            int similarityRank = scores[i] + TagVector.dot(queryResidual, residuals[i]);
+
+            if(similarityRank != 0 && !books[i].equals(startingPoint)){
+                selected.offer(books[i], similarityRank);
+            }
+        }
+
+        return selected;
+    }
+}
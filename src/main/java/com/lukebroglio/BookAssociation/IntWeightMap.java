@@ -0,0 +1,211 @@
+package com.lukebroglio.BookAssociation;
+
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Associates items with an int weight without creating an object per entry. Items are stored in an open addressing
+ * hash table with their weights kept in a parallel int array. Unlike a {@link WeightedList} the items are not kept in
+ * order, which makes this suited to accumulating weights before they are ordered once with {@link #toWeightedList()}.
+ *
+ * @author Luke Broglio
+ * @param <T> The type of item this map stores
+ */
+public class IntWeightMap<T> {
+    /**
+     * The table holding the items in this map. Empty slots hold null
+     */
+    private Object[] keys;
+    /**
+     * The weights of the items in this map. The weight of the item at keys[i] is at weights[i]
+     */
+    private int[] weights;
+    /**
+     * The number of items in this map
+     */
+    private int size;
+
+    /**
+     * Constructs a new IntWeightMap with room for 8 items before it needs to grow
+     */
+    public IntWeightMap(){
+        this(8);
+    }
+
+    /**
+     * Constructs a new IntWeightMap with room for the given number of items before it needs to grow
+     *
+     * @param expectedSize The number of items the map is expected to hold
+     */
+    public IntWeightMap(int expectedSize){
+        //Keep the table at most half full so probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        keys = new Object[capacity];
+        weights = new int[capacity];
+    }
+
+    /**
+     * Finds the slot holding the given item, or the empty slot it would be placed in
+     *
+     * @param key The item to find
+     * @return The index of the slot in the table
+     */
+    private int slotFor(Object key){
+        int mask = keys.length - 1;
+        int h = key.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+
+        while(keys[slot] != null && !keys[slot].equals(key)){
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * Doubles the size of the table and re-inserts every item
+     */
+    private void grow(){
+        Object[] oldKeys = keys;
+        int[] oldWeights = weights;
+
+        keys = new Object[oldKeys.length * 2];
+        weights = new int[oldKeys.length * 2];
+
+        for(int i = 0; i < oldKeys.length; i++){
+            if(oldKeys[i] != null){
+                int slot = slotFor(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                weights[slot] = oldWeights[i];
+            }
+        }
+    }
+
+    /**
+     * Adds the given amount to the weight of an item. Items not in the map are added with the given amount as their weight
+     *
+     * @param key The item to add weight to
+     * @param amount The amount to add to its weight
+     *
+     * @return The weight of the item after adding
+     */
+    public int addWeight(T key, int amount){
+        int slot = slotFor(key);
+
+        if(keys[slot] == null){
+            if((size + 1) * 2 > keys.length){
+                grow();
+                slot = slotFor(key);
+            }
+            keys[slot] = key;
+            size++;
+        }
+
+        weights[slot] += amount;
+        return weights[slot];
+    }
+
+    /**
+     * Sets the weight of an item, adding the item if it isn't already in the map
+     *
+     * @param key The item to set the weight of
+     * @param weight The new weight of the item
+     */
+    public void setWeight(T key, int weight){
+        int slot = slotFor(key);
+
+        if(keys[slot] == null){
+            addWeight(key, weight);
+        }
+        else{
+            weights[slot] = weight;
+        }
+    }
+
+    /**
+     * Returns the weight of the given item
+     *
+     * @param key The item to get the weight of
+     *
+     * @return The weight of the item or 0 if it isn't in the map
+     */
+    public int getWeight(Object key){
+        return weights[slotFor(key)];
+    }
+
+    /**
+     * Checks to see if the given item is in this map
+     *
+     * @param key The item to look for
+     *
+     * @return True if the item is in the map false if it isn't
+     */
+    public boolean containsKey(Object key){
+        return keys[slotFor(key)] != null;
+    }
+
+    /**
+     * @return The number of items in this map
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * @return True if this map has no items
+     */
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /**
+     * Removes every item from this map while keeping its table so it can be reused
+     */
+    public void clear(){
+        Arrays.fill(keys, null);
+        Arrays.fill(weights, 0);
+        size = 0;
+    }
+
+    /**
+     * Calls the given action with every item in this map and its weight. Items are given in no particular order
+     *
+     * @param action The action to run for each item
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(ObjIntConsumer<? super T> action){
+        for(int i = 0; i < keys.length; i++){
+            if(keys[i] != null){
+                action.accept((T) keys[i], weights[i]);
+            }
+        }
+    }
+
+    /**
+     * Creates a {@link WeightedList} holding the items of this map ordered by their weight.
+     * The items are sorted once and then appended in order, so no item has to be placed or moved within the new list.
+     *
+     * @return A new WeightedList with the items and weights in this map
+     */
+    @SuppressWarnings("unchecked")
+    public WeightedList<T> toWeightedList(){
+        //Pack each weight with its slot so the order can be found with a primitive sort
+        long[] order = new long[size];
+        int filled = 0;
+
+        for(int i = 0; i < keys.length; i++){
+            if(keys[i] != null){
+                order[filled++] = ((long) weights[i] << 32) | i;
+            }
+        }
+        Arrays.sort(order);
+
+        WeightedList<T> ordered = new WeightedList<>(size);
+        for(int i = order.length - 1; i >= 0; i--){
+            int slot = (int) order[i];
+            ordered.append((T) keys[slot], weights[slot]);
+        }
+
+        return ordered;
+    }
+}
@@ -0,0 +1,1416 @@
+package com.lukebroglio.BookAssociation;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Handles storing all the Books in the programs data while it is running. Responsible for handling the association \
+ * of Books to each other. Also handles reading the List of Books in and out.
+ */
+public class MemoryBookStorage implements BookStorage {
+    /**
+     * The default maximum number of Books to cache related lists for
+     */
+    static final int DEFAULT_CACHED_TITLES = 10_000;
+    /**
+     * The default maximum total number of Books held across all cached related lists
+     */
+    static final long DEFAULT_CACHED_BOOKS = 1_000_000;
+    /**
+     * The default number of tag index postings a related query must walk before the catalog is scored in parallel
+     */
+    static final int DEFAULT_PARALLEL_THRESHOLD = 50_000;
+    /**
+     * The number of Books each fork-join task scores without splitting further
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 4096;
+    /**
+     * The most space reserved up front for a page of {@link #getBooksAfter}, so a huge limit doesn't allocate a huge
+     * list for a small catalog
+     */
+    private static final int PAGE_CAPACITY = 1024;
+    /**
+     * The default number of the most frequent tags given dense columns when dense scoring is used
+     */
+    static final int DEFAULT_DENSE_TAGS = 64;
+    /**
+     * The default number of bands in the MinHash signatures of the approximate index
+     */
+    static final int DEFAULT_LSH_BANDS = 20;
+    /**
+     * The default number of MinHash values in each band of the approximate index
+     */
+    static final int DEFAULT_LSH_ROWS = 2;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemoryBookStorage.class);
+
+    /**
+     * Scores a range of the catalog against a Book on a fork-join pool. Ranges larger than
+     * {@link #PARALLEL_CHUNK_SIZE} are split in half and scored in parallel. Each range keeps its own top limit Books
+     * which are merged as the halves finish.
+     */
+    private static class RelatedTask extends RecursiveTask<TopKSelector<Book>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Book startingPoint;
+        private final Book[] books;
+        private final int low;
+        private final int high;
+        private final int limit;
+
+        /**
+         * @param startingPoint The Book to score the range against
+         * @param books The catalog being scored
+         * @param low The first index of the range to score (inclusive)
+         * @param high The last index of the range to score (exclusive)
+         * @param limit The number of Books to keep
+         */
+        RelatedTask(Book startingPoint, Book[] books, int low, int high, int limit){
+            this.startingPoint = startingPoint;
+            this.books = books;
+            this.low = low;
+            this.high = high;
+            this.limit = limit;
+        }
+
+        @Override
+        protected TopKSelector<Book> compute(){
+            if(high - low > PARALLEL_CHUNK_SIZE){
+                int mid = (low + high) >>> 1;
+                RelatedTask left = new RelatedTask(startingPoint, books, low, mid, limit);
+                left.fork();
+
+                TopKSelector<Book> selected = new RelatedTask(startingPoint, books, mid, high, limit).compute();
+                selected.offerAll(left.join());
+                return selected;
+            }
+
+            TopKSelector<Book> selected = new TopKSelector<>(limit);
+            for(int i = low; i < high; i++){
+                int similarityRank = startingPoint.getSimilarityRanking(books[i]);
+                if(similarityRank != 0 && !books[i].equals(startingPoint)){
+                    selected.offer(books[i], similarityRank);
+                }
+            }
+            return selected;
+        }
+    }
+
+    /**
+     * The current version of the catalog, holding every stored {@link Book} associated with its title and the inverted
+     * index of their tags. Each change publishes a new {@link CatalogSnapshot}, so a reader that takes one snapshot for
+     * a query sees every Book and posting as of the same change without locking.
+     */
+    private final AtomicReference<CatalogSnapshot> catalog;
+    /**
+     * Held while the next version of the catalog is built and published, so each change builds on the one before.
+     * Readers never take it. Taken after mutationLock when both are held
+     */
+    private final Object publishLock = new Object();
+    /**
+     * The titles of the stored Books in order, used to list the catalog one page at a time
+     */
+    private final ConcurrentSkipListSet<String> sortedTitles;
+    /**
+     * Cache of the related lists returned by {@link #getRelated}
+     */
+    private final RelatedCache relatedCache;
+    /**
+     * The number of tag index postings a related query must walk before the catalog is scored in parallel instead
+     */
+    private volatile int parallelThreshold;
+    /**
+     * The number of tags given dense columns by the {@link DenseTagScorer}, or 0 if dense scoring isn't used
+     */
+    private volatile int denseTags;
+    /**
+     * The most recently built {@link DenseTagScorer}, or null if one hasn't been built
+     */
+    private volatile DenseTagScorer denseScorer;
+    /**
+     * MinHash index of the stored Books' tag sets used for approximate related queries
+     */
+    private final MinHashIndex approximateIndex;
+    /**
+     * Related lists computed ahead of time by a batch job, or null if none have been loaded
+     */
+    private volatile SimilarityMatrix similarityMatrix;
+    /**
+     * Held while a change is logged and applied, so changes are applied in the order they are logged and a snapshot
+     * can be matched to the last change it includes
+     */
+    private final Object mutationLock = new Object();
+    /**
+     * Held while the catalog is compacted into a new snapshot
+     */
+    private final Object compactionLock = new Object();
+    /**
+     * The log every change is written to before it is applied, or null if changes aren't logged
+     */
+    private volatile MutationLog mutationLog;
+    /**
+     * How long the mutation log collects changes before committing them as a group, or 0 to commit every change
+     */
+    private long commitWindowMillis;
+    /**
+     * The snapshot file the mutation log belongs to
+     */
+    private Path snapshotFile;
+    /**
+     * The sequence number of the last logged change included in the snapshot last read in
+     */
+    private long snapshotSequence;
+    /**
+     * Runs background compaction, or null if it hasn't been started
+     */
+    private ScheduledExecutorService compactor;
+    /**
+     * The memory-mapped binary catalog that Books not yet in the catalog are read from, or null once every Book has been
+     * read (or if the catalog wasn't loaded from a binary catalog)
+     */
+    private volatile BinaryCatalog mappedCatalog;
+    /**
+     * Completes once every Book in the mapped catalog has been read into the catalog and indexed
+     */
+    private volatile CompletableFuture<Void> catalogLoaded = CompletableFuture.completedFuture(null);
+    /**
+     * Runs the background read of a mapped binary catalog
+     */
+    private Executor catalogLoader = ForkJoinPool.commonPool();
+    /**
+     * True if compaction writes binary catalogs instead of JSON
+     */
+    private boolean binarySnapshots;
+    /**
+     * The number of shards to split a new snapshot into, or 0 to keep the snapshot in one file
+     */
+    private int shardCount;
+    /**
+     * The shards the snapshot is split into, or null if it is kept in one file
+     */
+    private ShardedCatalog shards;
+
+    /**
+     * Writes a snapshot of the catalog captured while changes were held up
+     */
+    @FunctionalInterface
+    private interface SnapshotWriter {
+        /**
+         * @param file The file to write the snapshot to
+         * @throws IOException Thrown if the file can't be written
+         */
+        void writeTo(Path file) throws IOException;
+    }
+    MemoryBookStorage(){
+        this(DEFAULT_CACHED_TITLES, DEFAULT_CACHED_BOOKS);
+    }
+
+    /**
+     * Creates a new MemoryBookStorage with a related list cache of the given size
+     *
+     * @param cachedTitles The maximum number of Books to cache related lists for
+     * @param cachedBooks The maximum total number of Books held across all cached related lists
+     */
+    MemoryBookStorage(int cachedTitles, long cachedBooks){
+        catalog = new AtomicReference<>(CatalogSnapshot.EMPTY);
+        sortedTitles = new ConcurrentSkipListSet<>();
+        relatedCache = new RelatedCache(cachedTitles, cachedBooks);
+        parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+        denseTags = 0;
+        approximateIndex = new MinHashIndex(DEFAULT_LSH_BANDS, DEFAULT_LSH_ROWS);
+    }
+
+    /**
+     * Turns on scoring related queries with a {@link DenseTagScorer}, which lays out the weights of the most frequent
+     * tags in dense blocks scored with the Vector API. The scorer is rebuilt on the first query after the catalog
+     * changes, so this suits catalogs that are read far more than they are tagged.
+     *
+     * @param denseTags The number of the most frequent tags to give dense columns, or 0 to turn dense scoring off
+     */
+    public void setDenseScoring(int denseTags){
+        this.denseTags = denseTags;
+        this.denseScorer = null;
+    }
+
+    /**
+     * Sets how much work a related query must involve before it is run in parallel. Queries whose tags appear in fewer
+     * than this many Books in total walk the tag index on the calling thread. Larger queries split the catalog into
+     * chunks that are scored on the common fork-join pool.
+     *
+     * @param parallelThreshold The number of tag index postings at which queries become parallel
+     */
+    public void setParallelThreshold(int parallelThreshold){
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Drops the cached related lists of the Book with the given title and of every Book given the given tag.
+     * These are the only lists whose rankings can change when the tag's weight in that Book changes. Called for every
+     * tag of a Book that is replaced by a new copy, since any list holding the old copy holds it through a shared tag.
+     *
+     * @param title The title of the Book that changed
+     * @param tag A tag of the Book that changed
+     * @param version A version of the catalog in which the Book has the tag
+     */
+    private void invalidateRelated(String title, String tag, CatalogSnapshot version){
+        relatedCache.invalidate(title);
+        relatedCache.invalidateAll(version.postings(tag));
+    }
+
+    /**
+     * Reads a List of {@link Book}s from a JSON file with a {@link CatalogReader}. Stores it in the catalog.
+     * The time the load took and the peak heap use during it are written to the log
+     *
+     * @param filePath The path to the file to read from
+     * @throws IOException Thrown if the file can't be read or isn't a saved catalog
+     */
+    public void readInBooks(String filePath) throws IOException {
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .toList();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        long start = System.nanoTime();
+        long[] booksLoaded = new long[1];
+
+        snapshotSequence = CatalogReader.read(Path.of(filePath), book -> {
+            addBook(book);
+            booksLoaded[0]++;
+        });
+
+        long peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        LOGGER.info("Loaded {} books from {} in {} ms, peak heap {} MB", booksLoaded[0], filePath,
+                (System.nanoTime() - start) / 1_000_000, peakHeap / (1024 * 1024));
+    }
+
+    /**
+     * Converts Books to the JSON written by {@link #saveBooks}. Each Book's JSON is the cached copy kept by the Book, so
+     * only Books changed since they were last serialized are serialized again. Stored Books are never tagged in place, so
+     * this can run after the lock the Books were captured under is released
+     *
+     * @param bookArray The Books to convert
+     * @param lastLogSequence The sequence number of the last logged change the Books include
+     * @return The UTF-8 bytes of a JSON array holding the array of Books, the Map of their tag weights and the last
+     * logged change included, split into pieces to be written in order
+     */
+    private static List<byte[]> catalogJson(Book[] bookArray, long lastLogSequence) {
+        ArrayList<byte[]> pieces = new ArrayList<>(bookArray.length * 2 + 2);
+        byte[] separator = {','};
+        //Associates each books with a Map storing the weight of its tags
+        HashMap<String,HashMap<String,Integer>> tagWeights = new HashMap<>();
+
+        pieces.add("[[".getBytes(StandardCharsets.UTF_8));
+        //For every book
+        for(int i=0; i < bookArray.length; i++){
+            //Add the Book to its array
+            if(i > 0){
+                pieces.add(separator);
+            }
+            pieces.add(bookArray[i].jsonBytes());
+            //Put an entry to store its tags weight
+            tagWeights.put(bookArray[i].getTitle(),new HashMap<>());
+
+            //For every tag
+            WeightedList<String> currTags = bookArray[i].getTags();
+
+            for(int j =0; j <currTags.size(); j++){
+                //Associate the tag with its weight
+                tagWeights.get(bookArray[i].getTitle()).put(currTags.get(j),currTags.getWeight(j));
+            }
+        }
+
+        //Record the last logged change the catalog includes so it isn't replayed on top of it
+        JSONObject logPosition = new JSONObject();
+        logPosition.put("lastLogSequence", lastLogSequence);
+        pieces.add(("]," + new JSONObject(tagWeights) + "," + logPosition + "]").getBytes(StandardCharsets.UTF_8));
+
+        return pieces;
+    }
+
+    /**
+     * Writes the Books currently stored by this object to a specified file in  JSON format
+     * @param saveFile Path to the file to write the JSON to
+     * @throws IOException Thrown if the file could be opened
+     */
+    public void saveBooks(String saveFile) throws IOException {
+        awaitLoaded();
+        SnapshotWriter snapshot;
+        synchronized(mutationLock){
+            snapshot = captureJson();
+        }
+
+        writeAtomically(Path.of(saveFile), snapshot);
+    }
+
+    /**
+     * Writes a file through a temporary file that is moved over it once complete, so a crash part way through never
+     * leaves a truncated file
+     *
+     * @param file The file to write
+     * @param writer Writes the contents to the temporary file
+     * @throws IOException Thrown if the file can't be written
+     */
+    private static void writeAtomically(Path file, SnapshotWriter writer) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        writer.writeTo(tempFile);
+        Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Adds a new {@link Book} to this Storage object's map and indexes its tags. If a Book with the same title was
+     * already stored it is replaced.
+     * @param toAdd The Book to add
+     */
+    @Override
+    public void addBook(Book toAdd){
+        mutate(List.of(toAdd.getTitle()), () -> List.of(addRecord(toAdd)), () -> applyAddBook(toAdd));
+    }
+
+    /**
+     * Adds many {@link Book}s at once, as {@link #addBook} would one at a time. They are logged together and published
+     * as one new version of the catalog, so readers see either none or all of them
+     *
+     * @param toAdd The Books to add, in order. A later Book replaces an earlier one with the same title
+     */
+    @Override
+    public void addBooks(List<Book> toAdd){
+        //Describing a Book for the log is the slowest part of adding it, so do it on all cores before taking the lock
+        List<JSONObject> records = (mutationLog == null) ? List.of()
+                : toAdd.parallelStream().map(MemoryBookStorage::addRecord).toList();
+        mutate(toAdd.stream().map(Book::getTitle).toList(), () -> records, () -> applyAddBooks(toAdd));
+    }
+
+    /**
+     * Publishes a version of the catalog holding the Book with its tags indexed, without logging the change
+     *
+     * @param toAdd The Book to add
+     */
+    private void applyAddBook(Book toAdd){
+        applyAddBooks(List.of(toAdd));
+    }
+
+    /**
+     * Publishes one version of the catalog holding all the Books with their tags indexed, without logging the change
+     *
+     * @param toAdd The Books to add, in order
+     */
+    private void applyAddBooks(List<Book> toAdd){
+        synchronized(publishLock){
+            CatalogSnapshot current = catalog.get();
+            CatalogSnapshot built = current;
+            for(Book book : toAdd){
+                built = built.with(book);
+            }
+            CatalogSnapshot next = built;
+            catalog.set(next);
+
+            for(Book book : toAdd){
+                String title = book.getTitle();
+                Book replaced = current.book(title);
+                sortedTitles.add(title);
+
+                if(replaced != null){
+                    replaced.forEachTag((tag, weight) -> invalidateRelated(title, tag, current));
+                }
+                book.forEachTag((tag, weight) -> invalidateRelated(title, tag, next));
+                relatedCache.invalidate(title);
+                approximateIndex.update(book);
+            }
+        }
+    }
+
+    /**
+     * Gets a {@link WeightedList} of the limit Books most related to this one. Books are weighted by their similarity
+     * ranking (determined by {@link Book#getSimilarityRanking}). Only the best limit Books are kept while the catalog
+     * is scored so the rest of the catalog is never sorted.
+     *
+     * Lists for stored Books are cached until a change to the catalog could alter them. The returned list may be shared
+     * with other callers and must not be modified.
+     *
+     * @param startingPoint The {@link Book} to find books related to.
+     * @param limit The maximum number of Books to return
+     * @return A list of at most limit Books ordered by their similarity ranking
+     */
+    @Override
+    public WeightedList<Book> getRelated(Book startingPoint, int limit) {
+        awaitLoaded();
+        String title = startingPoint.getTitle();
+
+        //Only cache lists for Books that are stored, any other Book can't be invalidated when it changes
+        if(catalog.get().book(title) != startingPoint){
+            return computeRelated(startingPoint, limit);
+        }
+
+        WeightedList<Book> cached = relatedCache.get(title, limit);
+        if(cached != null){
+            return cached;
+        }
+
+        long generation = relatedCache.generation();
+        WeightedList<Book> related = computeRelated(startingPoint, limit);
+        relatedCache.put(title, limit, related, generation);
+
+        return related;
+    }
+
+    /**
+     * Gets the limit Books most related to this one as scored by the given {@link SimilarityScorer}. Candidates are
+     * found through the tag index and scored using per Book statistics and the tag document frequencies of the same
+     * version of the catalog, so no scorer needs a pass over the catalog. Lists scored by anything other than
+     * {@link SimilarityScorer#RAW} aren't cached.
+     *
+     * @param startingPoint The {@link Book} to find books related to.
+     * @param limit The maximum number of Books to return
+     * @param scorer The scorer used to rank the Books
+     * @return A list of at most limit Books ordered by their score
+     */
+    @Override
+    public WeightedList<Book> getRelated(Book startingPoint, int limit, SimilarityScorer scorer) {
+        if(scorer == SimilarityScorer.RAW){
+            return getRelated(startingPoint, limit);
+        }
+
+        awaitLoaded();
+        CatalogSnapshot current = catalog.get();
+        TopKSelector<Book> relatedBooks = new TopKSelector<>(limit);
+        similarityRanks(startingPoint, current).forEach((title, similarityRank) -> {
+            Book related = current.book(title);
+
+            if(similarityRank != 0 && related != null && !related.equals(startingPoint)){
+                int score = scorer.score(startingPoint, related, similarityRank, current);
+                if(score != 0){
+                    relatedBooks.offer(related, score);
+                }
+            }
+        });
+
+        return relatedBooks.toWeightedList();
+    }
+
+    /**
+     * Sets the precomputed related lists used by {@link #getRelatedPrecomputed}
+     *
+     * @param similarityMatrix The precomputed related lists, or null to stop using them
+     */
+    @Override
+    public void setSimilarityMatrix(SimilarityMatrix similarityMatrix) {
+        this.similarityMatrix = similarityMatrix;
+    }
+
+    /**
+     * Gets the limit Books most related to this one from the precomputed {@link SimilarityMatrix}. The lists reflect the
+     * catalog as it was when the matrix was computed. Falls back to {@link #getRelated(Book, int)} if no matrix is
+     * loaded or the Book isn't in it.
+     *
+     * @param startingPoint The {@link Book} to find books related to.
+     * @param limit The maximum number of Books to return
+     * @return A list of at most limit Books ordered by their similarity ranking
+     */
+    @Override
+    public WeightedList<Book> getRelatedPrecomputed(Book startingPoint, int limit) {
+        SimilarityMatrix matrix = similarityMatrix;
+
+        if(matrix != null){
+            WeightedList<Book> related = matrix.related(startingPoint.getTitle(), limit, this::getBook);
+            if(related != null){
+                return related;
+            }
+        }
+        return getRelated(startingPoint, limit);
+    }
+
+    /**
+     * Gets the limit Books most related to this one using the approximate MinHash index. Only Books sharing a band
+     * bucket with startingPoint are scored (with {@link Book#getSimilarityRanking}), so Books with little tag overlap
+     * may be missed.
+     *
+     * @param startingPoint The {@link Book} to find books related to.
+     * @param limit The maximum number of Books to return
+     * @return The related Books found along with the number of candidates scored and the time taken
+     */
+    @Override
+    public ApproximateRelated getRelatedApproximate(Book startingPoint, int limit) {
+        awaitLoaded();
+        long start = System.nanoTime();
+        CatalogSnapshot current = catalog.get();
+        Set<String> candidates = approximateIndex.candidates(startingPoint);
+        TopKSelector<Book> relatedBooks = new TopKSelector<>(limit);
+
+        for(String title : candidates){
+            Book candidate = current.book(title);
+
+            if(candidate != null && !candidate.equals(startingPoint)){
+                int similarityRank = startingPoint.getSimilarityRanking(candidate);
+                if(similarityRank != 0){
+                    relatedBooks.offer(candidate, similarityRank);
+                }
+            }
+        }
+
+        WeightedList<Book> related = relatedBooks.toWeightedList();
+        return new ApproximateRelated(related, candidates.size(), (System.nanoTime() - start) / 1000);
+    }
+
+    /**
+     * @return True: approximate queries use the MinHash index
+     */
+    @Override
+    public boolean hasApproximateIndex(){
+        return true;
+    }
+
+    /**
+     * Runs an approximate and an exact related query for the same Book and reports how many of the exact results the
+     * approximate query found. Used to tune the approximate index. The exact query skips the cache so its time is what
+     * the query really costs.
+     *
+     * @param startingPoint The {@link Book} to find books related to.
+     * @param limit The maximum number of Books to compare
+     * @return The recall of the approximate query and the time each query took
+     */
+    @Override
+    public RecallReport measureRecall(Book startingPoint, int limit) {
+        ApproximateRelated approximate = getRelatedApproximate(startingPoint, limit);
+
+        long start = System.nanoTime();
+        WeightedList<Book> exact = computeRelated(startingPoint, limit);
+        long exactMicros = (System.nanoTime() - start) / 1000;
+
+        int found = 0;
+        for(Book book : exact){
+            if(approximate.related().contains(book)){
+                found++;
+            }
+        }
+        double recall = exact.isEmpty() ? 1.0 : (double) found / exact.size();
+
+        return new RecallReport(recall, approximate.candidates(), approximate.micros(), exactMicros);
+    }
+
+    /**
+     * Finds the limit Books most related to the given Book in the current version of the catalog without using the
+     * cache. Small queries walk the tag index on the calling thread. If startingPoint's tags appear in at least
+     * parallelThreshold Books in total most of the catalog is involved anyway, so the catalog is scored in parallel.
+     *
+     * @param startingPoint The {@link Book} to find books related to.
+     * @param limit The maximum number of Books to return
+     * @return A list of at most limit Books ordered by their similarity ranking
+     */
+    private WeightedList<Book> computeRelated(Book startingPoint, int limit) {
+        CatalogSnapshot current = catalog.get();
+        if(denseTags > 0){
+            return computeRelatedDense(startingPoint, limit, current);
+        }
+
+        long[] postingCount = {0};
+        startingPoint.forEachTag((tag, weight) -> postingCount[0] += current.postings(tag).size());
+
+        if(postingCount[0] >= parallelThreshold){
+            return computeRelatedParallel(startingPoint, limit, current);
+        }
+        return computeRelatedIndexed(startingPoint, limit, current);
+    }
+
+    /**
+     * Finds the limit Books most related to the given Book with a {@link DenseTagScorer}, building a new one first if
+     * the catalog has changed since the last was built
+     *
+     * @param startingPoint The {@link Book} to find books related to.
+     * @param limit The maximum number of Books to return
+     * @param current The version of the catalog to search
+     * @return A list of at most limit Books ordered by their similarity ranking
+     */
+    private WeightedList<Book> computeRelatedDense(Book startingPoint, int limit, CatalogSnapshot current) {
+        DenseTagScorer scorer = denseScorer;
+
+        if(scorer == null || scorer.version() != current.version()){
+            scorer = DenseTagScorer.build(current, denseTags);
+            denseScorer = scorer;
+        }
+
+        return scorer.related(startingPoint, limit).toWeightedList();
+    }
+
+    /**
+     * Finds the limit Books most related to the given Book by scoring the whole catalog on the common fork-join pool
+     *
+     * @param startingPoint The {@link Book} to find books related to.
+     * @param limit The maximum number of Books to return
+     * @param current The version of the catalog to search
+     * @return A list of at most limit Books ordered by their similarity ranking
+     */
+    private WeightedList<Book> computeRelatedParallel(Book startingPoint, int limit, CatalogSnapshot current) {
+        Book[] allBooks = current.books();
+
+        return ForkJoinPool.commonPool().invoke(new RelatedTask(startingPoint, allBooks, 0, allBooks.length, limit))
+                .toWeightedList();
+    }
+
+    /**
+     * Finds the similarity rankings of every Book sharing a tag with the given Book by walking the tag index for each of
+     * the Book's tags
+     *
+     * @param startingPoint The {@link Book} to find the similarity rankings to
+     * @param current The version of the catalog to search
+     * @return The similarity ranking of every Book sharing a tag with startingPoint, associated with the Book's title
+     */
+    private IntWeightMap<String> similarityRanks(Book startingPoint, CatalogSnapshot current) {
+        IntWeightMap<String> similarityRanks = new IntWeightMap<>();
+
+        //Each shared tag adds the product of its weight in both Books to their similarity ranking
+        startingPoint.forEachTag((tag, weight) -> current.postings(tag).forEach(
+                (title, taggedWeight) -> similarityRanks.addWeight(title, weight * taggedWeight)));
+
+        return similarityRanks;
+    }
+
+    /**
+     * Finds the limit Books most related to the given Book on the calling thread.
+     * Only Books sharing at least one tag with startingPoint are looked at. Their rankings are built up by walking the
+     * tag index for each of startingPoint's tags.
+     *
+     * @param startingPoint The {@link Book} to find books related to.
+     * @param limit The maximum number of Books to return
+     * @param current The version of the catalog to search
+     * @return A list of at most limit Books ordered by their similarity ranking
+     */
+    private WeightedList<Book> computeRelatedIndexed(Book startingPoint, int limit, CatalogSnapshot current) {
+        IntWeightMap<String> similarityRanks = similarityRanks(startingPoint, current);
+
+        TopKSelector<Book> relatedBooks = new TopKSelector<>(limit);
+        similarityRanks.forEach((title, similarityRank) -> {
+            Book related = current.book(title);
+
+            if(similarityRank != 0 && related != null && !related.equals(startingPoint)){
+                relatedBooks.offer(related, similarityRank);
+            }
+        });
+
+        return relatedBooks.toWeightedList();
+    }
+
+    /**
+     * Gets a Book with the given title from the catalog. The Book returned is the version stored when it was asked for;
+     * tagging it through this object stores a tagged copy, so get it again to see the new tags
+     *
+     * @param title String storing the title of the book to get
+     * @return The {@link Book} object of the requested Book
+     */
+    @Override
+    public Book getBook(String title){
+        return lookup(title);
+    }
+
+    /**
+     * @return A number that changes whenever the catalog changes. Responses built from the catalog can be tagged with
+     * it and reused until it changes
+     */
+    @Override
+    public long catalogVersion(){
+        return catalog.get().version();
+    }
+
+    /**
+     * @return The sequence number of the last change written to the mutation log, or 0 if no log is open
+     */
+    long loggedSequence(){
+        MutationLog log = mutationLog;
+        return (log == null) ? 0 : log.lastSequence();
+    }
+
+    @Override
+    public Book[] getAllBooks(){
+        awaitLoaded();
+        return catalog.get().books();
+    }
+
+    /**
+     * Gets one page of the catalog in order of title. Passing the title of the last Book of a page as after gets the
+     * next page, so a listing stays consistent while Books are added and never copies the whole catalog.
+     *
+     * @param after The title to start after, or null to start at the first Book
+     * @param limit The maximum number of Books to return
+     * @return The next limit Books in order of title. Fewer than limit are returned only at the end of the catalog
+     */
+    @Override
+    public List<Book> getBooksAfter(String after, int limit){
+        BinaryCatalog mapped = mappedCatalog;
+        if(mapped != null){
+            return getBooksAfter(after, limit, mapped);
+        }
+
+        CatalogSnapshot current = catalog.get();
+        NavigableSet<String> titles = (after == null) ? sortedTitles : sortedTitles.tailSet(after, false);
+        ArrayList<Book> page = new ArrayList<>(Math.min(limit, PAGE_CAPACITY));
+
+        for(String title : titles){
+            if(page.size() >= limit){
+                break;
+            }
+            //A title added after the snapshot was taken isn't in it yet
+            Book book = current.book(title);
+            if(book != null){
+                page.add(book);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Gets one page of the catalog while the mapped binary catalog is still being read, without waiting for it. The
+     * mapped catalog's title index is merged with the titles already in the catalog, and the Books on the page that
+     * haven't been read yet are read on demand
+     *
+     * @param after The title to start after, or null to start at the first Book
+     * @param limit The maximum number of Books to return
+     * @param mapped The mapped catalog
+     * @return The next limit Books in order of title
+     */
+    private List<Book> getBooksAfter(String after, int limit, BinaryCatalog mapped){
+        Iterator<String> added = ((after == null) ? sortedTitles : sortedTitles.tailSet(after, false)).iterator();
+        String addedTitle = added.hasNext() ? added.next() : null;
+        int next = (after == null) ? 0 : mapped.indexAfter(after);
+        ArrayList<Book> page = new ArrayList<>(Math.min(limit, PAGE_CAPACITY));
+
+        while(page.size() < limit && (addedTitle != null || next < mapped.size())){
+            String mappedTitle = (next < mapped.size()) ? mapped.titleAt(next) : null;
+            String title;
+
+            if(mappedTitle == null || (addedTitle != null && addedTitle.compareTo(mappedTitle) <= 0)){
+                title = addedTitle;
+                //A Book already read from the mapped catalog is in both
+                if(addedTitle.equals(mappedTitle)){
+                    next++;
+                }
+                addedTitle = added.hasNext() ? added.next() : null;
+            }
+            else{
+                title = mappedTitle;
+                next++;
+            }
+
+            Book book = lookup(title);
+            if(book != null){
+                page.add(book);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Gets a Book from the catalog, reading it from the mapped binary catalog if it hasn't been read yet
+     *
+     * @param title The title of the Book to get
+     * @return The Book, or null if no Book has the title
+     */
+    private Book lookup(String title){
+        Book book = catalog.get().book(title);
+        BinaryCatalog mapped = mappedCatalog;
+
+        if(book != null || mapped == null){
+            return book;
+        }
+
+        int index = mapped.indexOf(title);
+        return (index < 0) ? null : materialize(mapped, index, title);
+    }
+
+    /**
+     * Reads a Book from the mapped binary catalog into the catalog and indexes its tags, unless a Book with its title is
+     * already in the catalog. A Book that has been read or replaced is never read from the mapped catalog again.
+     *
+     * @param mapped The mapped catalog
+     * @param index The position of the Book in the mapped catalog
+     * @param title The title of the Book
+     * @return The Book in the catalog with the title
+     */
+    private Book materialize(BinaryCatalog mapped, int index, String title){
+        Book book = mapped.bookAt(index);
+
+        //Checking again under the lock keeps a Book added meanwhile from being replaced by its older copy
+        synchronized(publishLock){
+            CatalogSnapshot current = catalog.get();
+            Book existing = current.book(title);
+            if(existing != null){
+                return existing;
+            }
+
+            //A binary catalog being split into shards needs every Book written to its shard
+            markDirty(title);
+            catalog.set(current.with(book));
+            sortedTitles.add(title);
+            approximateIndex.update(book);
+            return book;
+        }
+    }
+
+    /**
+     * Maps a binary catalog and starts reading its Books into the catalog in the background. Until then single Books
+     * ({@link #getBook}) and pages of the listing ({@link #getBooksAfter}) are read on demand from the mapping, and only
+     * what needs the whole catalog (related queries, {@link #getAllBooks}, saving and compacting) waits for the rest.
+     *
+     * @param file The binary catalog file
+     * @throws IOException Thrown if the file can't be mapped
+     */
+    private void mapCatalog(Path file) throws IOException {
+        BinaryCatalog mapped = BinaryCatalog.open(file);
+        snapshotSequence = mapped.lastLogSequence();
+        mappedCatalog = mapped;
+
+        long start = System.nanoTime();
+        catalogLoaded = CompletableFuture.runAsync(() -> {
+            IntStream.range(0, mapped.size()).parallel().forEach(i -> materialize(mapped, i, mapped.titleAt(i)));
+            mappedCatalog = null;
+            LOGGER.info("Read {} books from {} in {} ms", mapped.size(), file,
+                    (System.nanoTime() - start) / 1_000_000);
+        }, catalogLoader);
+    }
+
+    /**
+     * Waits until every Book in the mapped binary catalog has been read into the catalog. Anything that looks at the whole
+     * catalog, like related queries, calls this first. Lookups of single Books and pages don't need to
+     */
+    private void awaitLoaded(){
+        catalogLoaded.join();
+    }
+
+    /**
+     * Adds a tag to the Book with the given title and updates the tag index to match. A tagged copy of the Book replaces
+     * the stored one, so Books already handed out keep their tags
+     *
+     * @param title The title of the Book to tag
+     * @param tag The tag to add or to increase the weight of
+     * @throws BookNotFoundException Thrown if no Book has the title
+     * @throws IllegalArgumentException Thrown if the tag's weight is already the largest an int holds
+     */
+    @Override
+    public void tagBook(String title, String tag){
+        Book book = lookup(title);
+        if(book == null){
+            throw new BookNotFoundException(title);
+        }
+        checkWeight(book, tag, 1);
+
+        mutate(List.of(title), () -> List.of(tagRecord(title, tag)), () -> applyTagBook(title, Map.of(tag, 1)));
+    }
+
+    /**
+     * Adds several tags to the Book with the given title at once, each the given number of times. The Book is copied,
+     * the catalog published and the change logged once for all of them
+     *
+     * @param title The title of the Book to tag
+     * @param tagCounts Associates each tag to add with the number of times to add it. Every count must be positive
+     * @throws BookNotFoundException Thrown if no Book has the title
+     * @throws IllegalArgumentException Thrown if a count isn't positive or would take a tag's weight past the largest
+     * an int holds
+     */
+    @Override
+    public void tagBook(String title, Map<String, Integer> tagCounts){
+        Book book = lookup(title);
+        if(book == null){
+            throw new BookNotFoundException(title);
+        }
+        tagCounts.forEach((tag, count) -> {
+            if(count < 1){
+                throw new IllegalArgumentException("A tag must be added a positive number of times: " + tag);
+            }
+            checkWeight(book, tag, count);
+        });
+
+        mutate(List.of(title), () -> List.of(tagsRecord(title, tagCounts)), () -> applyTagBook(title, tagCounts));
+    }
+
+    /**
+     * Checks a tag can be added to a Book the given number of times before the change is logged, so an overflowing
+     * weight is rejected instead of wrapping around to a negative one
+     *
+     * @param book The Book to tag
+     * @param tag The tag to add
+     * @param count The number of times to add it
+     * @throws IllegalArgumentException Thrown if the tag's weight would be more than the largest an int holds
+     */
+    private static void checkWeight(Book book, String tag, int count){
+        if((long) book.tagNumber(tag) + count > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("The weight of " + tag + " for " + book.getTitle()
+                    + " would be more than " + Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Publishes a version of the catalog holding a tagged copy of a Book without logging the change
+     *
+     * @param title The title of the Book to tag
+     * @param tagCounts Associates each tag to add with the number of times to add it
+     */
+    private void applyTagBook(String title, Map<String, Integer> tagCounts){
+        synchronized(publishLock){
+            Book book = lookup(title);
+            Book tagged = book.withTags(tagCounts);
+            CatalogSnapshot next = catalog.get().with(tagged);
+            catalog.set(next);
+
+            //Cached lists sharing any of the Book's tags hold the old copy, not just those sharing the tags added
+            tagged.forEachTag((tag, weight) -> invalidateRelated(title, tag, next));
+            boolean newTag = false;
+            for(String tag : tagCounts.keySet()){
+                newTag |= !book.hasTag(tag);
+            }
+            //Only a new tag changes the Book's tag set, so only then can its place in the approximate index change
+            if(newTag){
+                approximateIndex.update(tagged);
+            }
+        }
+    }
+
+    /**
+     * Logs a change if a mutation log is open and then applies it. Without a log the change is just applied. The
+     * changed Books are marked dirty under the same lock as the change is logged, so a compaction either includes the
+     * change in the shards it writes or sees them dirty afterwards
+     *
+     * @param changedTitles The titles of the Books the change makes or alters
+     * @param records Creates the JSON objects describing the change for the log, one for each logged change it makes
+     * @param change Applies the change
+     */
+    private void mutate(List<String> changedTitles, Supplier<List<JSONObject>> records, Runnable change){
+        if(mutationLog == null){
+            changedTitles.forEach(this::markDirty);
+            change.run();
+            return;
+        }
+
+        synchronized(mutationLock){
+            //The log may have been closed since it was checked
+            if(mutationLog != null){
+                try{
+                    for(JSONObject record : records.get()){
+                        mutationLog.append(record);
+                    }
+                }
+                catch(IOException e){
+                    throw new UncheckedIOException("Couldn't log a change to the catalog", e);
+                }
+            }
+            changedTitles.forEach(this::markDirty);
+            change.run();
+        }
+    }
+
+    /**
+     * Describes adding a Book for the mutation log
+     *
+     * @param toAdd The Book being added
+     * @return The JSON object of the change, holding the Book as written by {@link #saveBooks} and its tag weights
+     */
+    private static JSONObject addRecord(Book toAdd){
+        JSONObject tagWeights = new JSONObject();
+        toAdd.forEachTag(tagWeights::put);
+
+        JSONObject record = new JSONObject();
+        record.put("op", "add");
+        //Reuse the Book's serialized JSON, which is written the same way and is wanted for reads anyway
+        record.put("book", new JSONObject(new String(toAdd.jsonBytes(), StandardCharsets.UTF_8)));
+        record.put("tagWeights", tagWeights);
+        return record;
+    }
+
+    /**
+     * Describes tagging a Book for the mutation log
+     *
+     * @param title The title of the Book being tagged
+     * @param tag The tag being added
+     * @return The JSON object of the change
+     */
+    private static JSONObject tagRecord(String title, String tag){
+        JSONObject record = new JSONObject();
+        record.put("op", "tag");
+        record.put("title", title);
+        record.put("tag", tag);
+        return record;
+    }
+
+    /**
+     * Describes adding several tags to a Book for the mutation log
+     *
+     * @param title The title of the Book being tagged
+     * @param tagCounts Associates each tag being added with the number of times it is added
+     * @return The JSON object of the change
+     */
+    private static JSONObject tagsRecord(String title, Map<String, Integer> tagCounts){
+        JSONObject record = new JSONObject();
+        record.put("op", "tags");
+        record.put("title", title);
+        record.put("tags", new JSONObject(tagCounts));
+        return record;
+    }
+
+    /**
+     * Applies a change read back from the mutation log
+     *
+     * @param record The parsed JSON object of the change
+     */
+    //The records are read with the JSONParser the Book JSON constructor expects, so its casts are needed
+    @SuppressWarnings("unchecked")
+    private void replay(LinkedHashMap<String, Object> record){
+        String op = (String) record.get("op");
+        LinkedHashMap<Object, Object> book = (LinkedHashMap<Object, Object>) record.get("book");
+        String title = (String) ((book == null) ? record.get("title") : book.get("title"));
+
+        //Shards are written at different times, so a change may already be in its Book's shard
+        long sequence = ((BigInteger) record.get("seq")).longValue();
+        if(shards != null && shards.exists() && sequence <= shards.sequenceOf(title)){
+            return;
+        }
+        markDirty(title);
+
+        if(op.equals("add")){
+            HashMap<String, HashMap<String, BigInteger>> tagWeights = new HashMap<>();
+            tagWeights.put(title, (HashMap<String, BigInteger>) record.get("tagWeights"));
+
+            applyAddBook(new Book(book, tagWeights));
+        }
+        else if(op.equals("tag")){
+            applyTagBook(title, Map.of((String) record.get("tag"), 1));
+        }
+        else if(op.equals("tags")){
+            LinkedHashMap<String, Integer> tagCounts = new LinkedHashMap<>();
+            ((HashMap<String, BigInteger>) record.get("tags")).forEach((tag, count) -> tagCounts.put(tag, count.intValue()));
+
+            applyTagBook(title, tagCounts);
+        }
+        else{
+            throw new IllegalArgumentException("Unknown change in the mutation log: " + op);
+        }
+    }
+
+    /**
+     * Sets the number of shard files snapshots are split into. With shards, compaction only rewrites the shards holding
+     * Books changed since the last compaction, and the shards are read in parallel on startup. The shards are kept in
+     * the directory snapshot + ".shards"; a single file snapshot at the snapshot path is read the first time and split
+     * by the first compaction. The number of shards of an existing sharded catalog can't be changed. Takes effect when
+     * the catalog is next opened.
+     *
+     * @param shardCount The number of shards, or 0 to keep the snapshot in one file
+     */
+    public void setShardCount(int shardCount){
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Records that a Book has changed so its shard is rewritten by the next compaction
+     *
+     * @param title The title of the Book
+     */
+    private void markDirty(String title){
+        if(shards != null){
+            shards.markDirty(title);
+        }
+    }
+
+    /**
+     * Reads every shard of the sharded catalog in parallel
+     *
+     * @throws IOException Thrown if a shard can't be read
+     */
+    private void loadShards() throws IOException {
+        long start = System.nanoTime();
+        shards.load(this::applyAddBook);
+
+        //Changes after the shard that has been written least recently may need to be replayed
+        snapshotSequence = shards.lowestSequence();
+        LOGGER.info("Loaded {} books from {} shards in {} ms", catalog.get().size(), shards.shardCount(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Sets how long the mutation log collects changes before committing them with one write and one force. Changes are
+     * applied (and visible) as soon as they are made, but a crash can lose those made within the last window unless
+     * {@link #sync()} was called after them. Takes effect when the log is next opened.
+     *
+     * @param commitWindowMillis The commit window in milliseconds, or 0 to commit every change before it is applied
+     */
+    public void setCommitWindow(long commitWindowMillis){
+        this.commitWindowMillis = commitWindowMillis;
+    }
+
+    /**
+     * Sets what runs the background read of a binary catalog opened after this is called
+     *
+     * @param catalogLoader Runs the read. The common fork-join pool unless set
+     */
+    void setCatalogLoader(Executor catalogLoader){
+        this.catalogLoader = catalogLoader;
+    }
+
+    /**
+     * Waits until every change made so far is on disk. Concurrent callers share the same write
+     *
+     * @throws IOException Thrown if the changes can't be written
+     */
+    @Override
+    public void sync() throws IOException {
+        MutationLog log = mutationLog;
+        if(log != null){
+            log.sync();
+        }
+    }
+
+    /**
+     * Loads the catalog from a snapshot and the mutation log kept next to it, then logs every later change to the
+     * log instead of rewriting the snapshot. A missing snapshot is treated as an empty catalog. A
+     * {@link BinaryCatalog} snapshot is only mapped, with its Books read in the background, and later snapshots are
+     * written in the same format.
+     *
+     * @param snapshotFile Path to the snapshot file, in the format written by {@link #saveBooks} or
+     *                     {@link #saveBinaryCatalog}
+     * @throws IOException Thrown if the snapshot or the log can't be read, or the log can't be opened
+     */
+    @Override
+    public void open(String snapshotFile) throws IOException {
+        Path snapshot = Path.of(snapshotFile);
+        if(shardCount > 0){
+            shards = ShardedCatalog.open(snapshot.resolveSibling(snapshot.getFileName() + ".shards"), shardCount);
+        }
+
+        if(shards != null && shards.exists()){
+            loadShards();
+        }
+        else if(Files.exists(snapshot)){
+            binarySnapshots = BinaryCatalog.isBinaryCatalog(snapshot);
+            if(binarySnapshots){
+                mapCatalog(snapshot);
+            }
+            else{
+                readInBooks(snapshotFile);
+            }
+        }
+
+        synchronized(mutationLock){
+            this.snapshotFile = snapshot;
+            this.mutationLog = MutationLog.open(snapshot, snapshotSequence, this::replay, commitWindowMillis);
+        }
+    }
+
+    /**
+     * Writes the catalog to a new snapshot and deletes the logged changes it includes. Only capturing the catalog
+     * holds up changes; the snapshot is written to a temporary file and moved over the old one so a crash never leaves
+     * a partial snapshot.
+     *
+     * @throws IOException Thrown if the snapshot can't be written or the log can't be rolled
+     */
+    public void compact() throws IOException {
+        awaitLoaded();
+        synchronized(compactionLock){
+            MutationLog log = mutationLog;
+            if(log == null){
+                throw new IllegalStateException("No mutation log is open");
+            }
+
+            if(shards != null){
+                compactShards(log);
+                return;
+            }
+
+            SnapshotWriter snapshot;
+            long sequence;
+            synchronized(mutationLock){
+                sequence = log.lastSequence();
+                snapshot = binarySnapshots ? captureBinary(sequence) : captureJson();
+                log.roll();
+            }
+
+            writeAtomically(snapshotFile, snapshot);
+
+            log.deleteThrough(sequence);
+        }
+    }
+
+    /**
+     * Rewrites the shards holding Books changed since the last compaction, then the manifest, then deletes the logged
+     * changes they include. Callers hold compactionLock
+     *
+     * @param log The open mutation log
+     * @throws IOException Thrown if a shard or the manifest can't be written or the log can't be rolled
+     */
+    private void compactShards(MutationLog log) throws IOException {
+        int[] dirtyShards;
+        SnapshotWriter[] writers;
+        long sequence;
+        synchronized(mutationLock){
+            sequence = log.lastSequence();
+            dirtyShards = shards.takeDirtyShards();
+            writers = new SnapshotWriter[dirtyShards.length];
+            CatalogSnapshot current = catalog.get();
+
+            for(int i = 0; i < dirtyShards.length; i++){
+                Book[] books = shards.titlesOf(dirtyShards[i]).stream()
+                        .map(current::book)
+                        .filter(Objects::nonNull)
+                        .toArray(Book[]::new);
+                writers[i] = captureJson(books, sequence);
+            }
+            log.roll();
+        }
+
+        try{
+            Files.createDirectories(shards.shardFile(0).getParent());
+            for(int i = 0; i < dirtyShards.length; i++){
+                writeAtomically(shards.shardFile(dirtyShards[i]), writers[i]);
+            }
+            shards.writeManifest(sequence);
+        }
+        catch(IOException e){
+            shards.restoreDirtyShards(dirtyShards);
+            throw e;
+        }
+
+        log.deleteThrough(sequence);
+    }
+
+    /**
+     * Captures the catalog as JSON. Callers hold mutationLock
+     *
+     * @return Writes the captured JSON to a file and forces it to disk
+     */
+    private SnapshotWriter captureJson(){
+        MutationLog log = mutationLog;
+        return captureJson(getAllBooks(), (log == null) ? snapshotSequence : log.lastSequence());
+    }
+
+    /**
+     * Captures Books as JSON. Callers hold mutationLock; the Books are only serialized once the snapshot is written,
+     * after it is released
+     *
+     * @param books The Books to capture
+     * @param lastLogSequence The sequence number of the last logged change the Books include
+     * @return Writes the captured JSON to a file and forces it to disk
+     */
+    private SnapshotWriter captureJson(Book[] books, long lastLogSequence){
+        return file -> {
+            List<byte[]> snapshot = catalogJson(books, lastLogSequence);
+
+            try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+                for(byte[] piece : snapshot){
+                    out.write(piece);
+                }
+                out.flush();
+                channel.force(true);
+            }
+        };
+    }
+
+    /**
+     * Captures every Book and a snapshot of its tags for a {@link BinaryCatalog}. Callers hold mutationLock
+     *
+     * @param sequence The sequence number of the last logged change the catalog includes
+     * @return Writes the captured Books to a binary catalog file
+     */
+    private SnapshotWriter captureBinary(long sequence){
+        List<Book> books = List.of(getAllBooks());
+        List<WeightedList<String>> tags = books.stream().map(Book::getTags).toList();
+
+        return file -> BinaryCatalog.write(file, books, tags, sequence);
+    }
+
+    /**
+     * Writes the Books currently stored by this object to a {@link BinaryCatalog} file. Used to migrate a JSON catalog:
+     * the file is written as a new catalog with no logged changes of its own, ready to be opened with {@link #open}.
+     *
+     * @param saveFile Path to the file to write
+     * @throws IOException Thrown if the file can't be written
+     */
+    @Override
+    public void saveBinaryCatalog(String saveFile) throws IOException {
+        awaitLoaded();
+        SnapshotWriter snapshot;
+        synchronized(mutationLock){
+            snapshot = captureBinary(0);
+        }
+
+        writeAtomically(Path.of(saveFile), snapshot);
+    }
+
+    /**
+     * Starts compacting the catalog in the background. Every period the catalog is compacted if at least minChanges
+     * changes have been logged since the last compaction.
+     *
+     * @param periodSeconds How often to check if compaction is needed
+     * @param minChanges The number of logged changes that triggers a compaction
+     */
+    public void startCompaction(long periodSeconds, long minChanges){
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "book-storage-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        compactor.scheduleWithFixedDelay(() -> {
+            try{
+                //Don't hold up the compactor waiting for a mapped catalog to be read, the next round will compact
+                if(catalogLoaded.isDone() && mutationLog.activeRecords() >= minChanges){
+                    compact();
+                }
+            }
+            catch(IOException | RuntimeException e){
+                LOGGER.error("Compacting the catalog failed", e);
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops background compaction and closes the mutation log. Later changes aren't logged
+     *
+     * @throws IOException Thrown if the log can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if(compactor != null){
+            compactor.shutdownNow();
+            compactor = null;
+        }
+
+        synchronized(mutationLock){
+            if(mutationLog != null){
+                mutationLog.close();
+                mutationLog = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.lukebroglio.BookAssociation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Approximate index of Books with similar sets of tags using MinHash signatures and locality sensitive hashing.
+ * Each Book's tag set is reduced to a signature of bands * rows MinHash values. The signature is split into bands and
+ * every band is hashed into a bucket, so two Books land in a common bucket with high probability when their tag sets
+ * overlap heavily. Candidates found this way are expected to be re-ranked exactly.
+ * <p>
+ * More bands (or fewer rows per band) find more candidates and miss fewer related Books at the cost of more re-ranking.
+ *
+ * @author Luke Broglio
+ */
+public class MinHashIndex {
+    /**
+     * The number of bands each signature is split into
+     */
+    private final int bands;
+    /**
+     * The number of MinHash values in each band
+     */
+    private final int rows;
+    /**
+     * The seed of each MinHash function
+     */
+    private final long[] seeds;
+    /**
+     * The signature of every indexed Book associated with its title
+     */
+    private final ConcurrentHashMap<String, int[]> signatures;
+    /**
+     * For each band, associates band hashes with the titles of the Books whose signature has that band
+     */
+    private final List<ConcurrentHashMap<Long, Set<String>>> buckets;
+
+    /**
+     * Creates a new empty MinHashIndex
+     *
+     * @param bands The number of bands each signature is split into
+     * @param rows The number of MinHash values in each band
+     */
+    public MinHashIndex(int bands, int rows){
+        this.bands = bands;
+        this.rows = rows;
+        this.seeds = new long[bands * rows];
+        this.signatures = new ConcurrentHashMap<>();
+        this.buckets = new ArrayList<>(bands);
+
+        for(int i = 0; i < seeds.length; i++){
+            seeds[i] = mix(0x9E3779B97F4A7C15L * (i + 1));
+        }
+        for(int i = 0; i < bands; i++){
+            buckets.add(new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Scrambles the bits of a value (the finalizer of MurmurHash3)
+     *
+     * @param x The value to scramble
+     * @return The scrambled value
+     */
+    private static long mix(long x){
+        x ^= x >>> 33;
+        x *= 0xFF51AFD7ED558CCDL;
+        x ^= x >>> 33;
+        x *= 0xC4CEB9FE1A85EC53L;
+        x ^= x >>> 33;
+        return x;
+    }
+
+    /**
+     * Computes the MinHash signature of a Book's tags
+     *
+     * @param book The Book to compute the signature of
+     * @return The signature, or null if the Book has no tags
+     */
+    private int[] signatureOf(Book book){
+        TagVector tags = book.tagVector();
+        if(tags.size() == 0){
+            return null;
+        }
+
+        int[] signature = new int[seeds.length];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+
+        for(int t = 0; t < tags.size(); t++){
+            int id = tags.idAt(t);
+            for(int i = 0; i < seeds.length; i++){
+                int hash = (int) mix(id ^ seeds[i]);
+                if(hash < signature[i]){
+                    signature[i] = hash;
+                }
+            }
+        }
+
+        return signature;
+    }
+
+    /**
+     * Hashes one band of a signature
+     *
+     * @param signature The signature holding the band
+     * @param band The band to hash
+     * @return The hash of the band
+     */
+    private long bandHash(int[] signature, int band){
+        long hash = band;
+        for(int i = band * rows; i < (band + 1) * rows; i++){
+            hash = mix(hash * 31 + signature[i]);
+        }
+        return hash;
+    }
+
+    /**
+     * Removes the given signature of the given title from the band buckets
+     *
+     * @param title The title to remove
+     * @param signature The signature it was indexed with
+     */
+    private void unbucket(String title, int[] signature){
+        for(int band = 0; band < bands; band++){
+            long hash = bandHash(signature, band);
+            Set<String> bucket = buckets.get(band).get(hash);
+
+            if(bucket != null){
+                bucket.remove(title);
+                if(bucket.isEmpty()){
+                    buckets.get(band).remove(hash, bucket);
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes a Book, or re-indexes it if its tag set has changed since it was last indexed
+     *
+     * @param book The Book to index
+     */
+    public synchronized void update(Book book){
+        String title = book.getTitle();
+        int[] signature = signatureOf(book);
+        int[] previous = (signature == null) ? signatures.remove(title) : signatures.put(title, signature);
+
+        if(Arrays.equals(previous, signature)){
+            return;
+        }
+        if(previous != null){
+            unbucket(title, previous);
+        }
+        if(signature != null){
+            for(int band = 0; band < bands; band++){
+                buckets.get(band).computeIfAbsent(bandHash(signature, band), h -> ConcurrentHashMap.newKeySet()).add(title);
+            }
+        }
+    }
+
+    /**
+     * Finds the titles of Books that share at least one band bucket with the given Book
+     *
+     * @param book The Book to find candidates for
+     * @return The titles of the candidate Books. May include the given Book's own title
+     */
+    public Set<String> candidates(Book book){
+        Set<String> found = new HashSet<>();
+        int[] signature = signatureOf(book);
+
+        if(signature != null){
+            for(int band = 0; band < bands; band++){
+                Set<String> bucket = buckets.get(band).get(bandHash(signature, band));
+                if(bucket != null){
+                    found.addAll(bucket);
+                }
+            }
+        }
+
+        return found;
+    }
+}
@@ -0,0 +1,506 @@
+package com.lukebroglio.BookAssociation;
+
+import org.apache.tomcat.util.json.JSONParser;
+import org.apache.tomcat.util.json.ParseException;
+import org.apache.tomcat.util.json.TokenMgrError;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Append-only log of the changes made to a {@link MemoryBookStorage} since its last snapshot. Every change is written as one
+ * line of JSON holding an increasing sequence number ("seq"), so the cost of a change doesn't depend on the size of the
+ * catalog. Without a commit window each change is forced to disk before it is applied, so no acknowledged change is
+ * lost in a crash.
+ * <p>
+ * Changes can be committed in groups. With a commit window, {@link #append} only buffers the change and a background
+ * committer writes every change buffered during the window with a single write and a single force. Callers that need
+ * a change to be durable before they go on call {@link #sync()}, and concurrent callers of sync share one force.
+ * <p>
+ * The log is kept in segments next to the snapshot file. Changes are appended to the active segment
+ * (snapshot + ".log"). {@link #roll()} closes the active segment under the name snapshot + ".log." + its last sequence
+ * number so it can be deleted with {@link #deleteThrough} once a snapshot holding its changes has been written.
+ *
+ * @author Luke Broglio
+ */
+public class MutationLog implements Closeable {
+    /**
+     * The file name suffix of the active segment
+     */
+    private static final String LOG_SUFFIX = ".log";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MutationLog.class);
+
+    /**
+     * The path of the active segment
+     */
+    private final Path activeFile;
+    /**
+     * Held while the active segment is written to or replaced. Taken before the lock on this log when both are needed
+     */
+    private final Object channelLock = new Object();
+    /**
+     * The active segment, opened for appending
+     */
+    private FileChannel active;
+    /**
+     * The sequence number of the last change logged
+     */
+    private long lastSequence;
+    /**
+     * The sequence number of the last change written to the active segment and forced to disk
+     */
+    private volatile long durableSequence;
+    /**
+     * The length of the active segment up to the end of its last committed change
+     */
+    private long committedSize;
+    /**
+     * The number of changes appended to the active segment
+     */
+    private long activeRecords;
+    /**
+     * Changes that have been appended but not yet written, one line each
+     */
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    /**
+     * How long the committer waits after a change arrives for more changes to write with it. 0 commits every change
+     * as it is appended
+     */
+    private final long commitWindowMillis;
+    /**
+     * Writes buffered changes in the background, or null if every change is committed as it is appended
+     */
+    private final Thread committer;
+    /**
+     * True once the log has been closed
+     */
+    private boolean closed;
+    /**
+     * Why writing or forcing the active segment failed, or null if it never has. A failed force leaves it unknown which
+     * changes reached the disk, so once this is set every later append, sync and commit fails instead
+     */
+    private IOException failure;
+
+    /**
+     * @param activeFile The path of the active segment
+     * @param lastSequence The sequence number of the last change logged
+     * @param activeRecords The number of changes already in the active segment
+     * @param commitWindowMillis How long to collect changes before committing them, or 0 to commit every change
+     * @throws IOException Thrown if the active segment can't be opened
+     */
+    private MutationLog(Path activeFile, long lastSequence, long activeRecords, long commitWindowMillis)
+            throws IOException {
+        this.activeFile = activeFile;
+        this.lastSequence = lastSequence;
+        this.durableSequence = lastSequence;
+        this.activeRecords = activeRecords;
+        this.commitWindowMillis = commitWindowMillis;
+        this.active = FileChannel.open(activeFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.committedSize = active.size();
+
+        if(commitWindowMillis > 0){
+            committer = new Thread(this::commitLoop, "mutation-log-committer");
+            committer.setDaemon(true);
+            committer.start();
+        }
+        else{
+            committer = null;
+        }
+    }
+
+    /**
+     * Opens the log kept next to the given snapshot, replaying every change it holds that the snapshot doesn't
+     * already include. Rolled segments are replayed oldest first and the active segment last. A partly written
+     * change at the end of the active segment (from a crash during an append) is dropped and cut off the file.
+     *
+     * @param snapshotFile The snapshot file the log belongs to
+     * @param snapshotSequence The sequence number of the last change included in the snapshot
+     * @param replay Applies a logged change, given as the parsed JSON object of its line
+     * @param commitWindowMillis How long to collect changes before committing them as a group, or 0 to commit every
+     *                           change as it is appended
+     * @return The opened log, ready to append to
+     * @throws IOException Thrown if a segment can't be read or holds a corrupt change before its end
+     */
+    public static MutationLog open(Path snapshotFile, long snapshotSequence,
+                                   Consumer<LinkedHashMap<String, Object>> replay, long commitWindowMillis)
+            throws IOException {
+        Path activeFile = activeSegment(snapshotFile);
+        long lastSequence = snapshotSequence;
+
+        for(Path segment : rolledSegments(activeFile).values()){
+            lastSequence = replaySegment(segment, lastSequence, replay, false);
+        }
+
+        long activeRecords = 0;
+        if(Files.exists(activeFile)){
+            long beforeActive = lastSequence;
+            lastSequence = replaySegment(activeFile, lastSequence, replay, true);
+            activeRecords = lastSequence - beforeActive;
+        }
+
+        return new MutationLog(activeFile, lastSequence, activeRecords, commitWindowMillis);
+    }
+
+    /**
+     * @param snapshotFile The snapshot file a log belongs to
+     * @return The path of the log's active segment
+     */
+    static Path activeSegment(Path snapshotFile){
+        return snapshotFile.resolveSibling(snapshotFile.getFileName() + LOG_SUFFIX);
+    }
+
+    /**
+     * @param activeFile The path of a log's active segment
+     * @param lastSequence The sequence number of the last change in a rolled segment
+     * @return The path the segment is rolled to
+     */
+    static Path rolledSegment(Path activeFile, long lastSequence){
+        return activeFile.resolveSibling(activeFile.getFileName() + "." + lastSequence);
+    }
+
+    /**
+     * Finds the rolled segments of the log whose active segment is at the given path
+     *
+     * @param activeFile The path of the active segment
+     * @return The paths of the rolled segments associated with their last sequence number, in order
+     * @throws IOException Thrown if the directory holding the log can't be read
+     */
+    private static TreeMap<Long, Path> rolledSegments(Path activeFile) throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        String prefix = activeFile.getFileName() + ".";
+        Path directory = activeFile.toAbsolutePath().getParent();
+
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")){
+            for(Path file : files){
+                try{
+                    segments.put(Long.parseLong(file.getFileName().toString().substring(prefix.length())), file);
+                }
+                catch(NumberFormatException e){
+                    //Not a segment of this log
+                }
+            }
+        }
+
+        return segments;
+    }
+
+    /**
+     * Replays the changes in one segment that come after the given sequence number
+     *
+     * @param segment The segment to replay
+     * @param afterSequence The sequence number of the last change already applied
+     * @param replay Applies a logged change
+     * @param truncateTornTail True if a partly written last change should be cut off rather than reported
+     * @return The sequence number of the last change in the segment, or afterSequence if it was later
+     * @throws IOException Thrown if the segment can't be read or holds a corrupt change
+     */
+    private static long replaySegment(Path segment, long afterSequence,
+                                      Consumer<LinkedHashMap<String, Object>> replay,
+                                      boolean truncateTornTail) throws IOException {
+        byte[] contents = Files.readAllBytes(segment);
+        long lastSequence = afterSequence;
+        int lineStart = 0;
+
+        while(lineStart < contents.length){
+            int lineEnd = lineStart;
+            while(lineEnd < contents.length && contents[lineEnd] != '\n'){
+                lineEnd++;
+            }
+
+            LinkedHashMap<String, Object> record = null;
+            if(lineEnd < contents.length){
+                try{
+                    String line = new String(contents, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+                    record = new JSONParser(line).parseObject();
+                }
+                //The parser reports text it can't even split into tokens with an Error rather than a ParseException
+                catch(ParseException | TokenMgrError e){
+                    //Handled below the same way as a line missing its newline
+                }
+            }
+
+            if(record == null){
+                //Only the last change of the active segment can have been cut short by a crash
+                boolean lastLine = lineEnd >= contents.length - 1;
+                if(!truncateTornTail || !lastLine){
+                    throw new IOException("Corrupt change in " + segment + " at byte " + lineStart);
+                }
+                try(FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)){
+                    channel.truncate(lineStart);
+                    channel.force(true);
+                }
+                break;
+            }
+
+            long sequence = ((BigInteger) record.get("seq")).longValue();
+            if(sequence > lastSequence){
+                replay.accept(record);
+                lastSequence = sequence;
+            }
+            lineStart = lineEnd + 1;
+        }
+
+        return lastSequence;
+    }
+
+    /**
+     * Appends a change to the log. Without a commit window the change is written and forced to disk before this
+     * returns. With one it is only buffered until the committer (or a call to {@link #sync()}) writes it.
+     *
+     * @param record The JSON object describing the change. Its "seq" key is set by this method
+     * @return The sequence number given to the change
+     * @throws IOException Thrown if the change can't be written, or an earlier commit failed
+     */
+    public long append(JSONObject record) throws IOException {
+        long sequence;
+        synchronized(this){
+            if(closed){
+                throw new IOException("The mutation log is closed");
+            }
+            if(failure != null){
+                throw failed();
+            }
+
+            sequence = lastSequence + 1;
+            record.put("seq", sequence);
+            pending.writeBytes((record + "\n").getBytes(StandardCharsets.UTF_8));
+            lastSequence = sequence;
+            activeRecords++;
+            notifyAll();
+        }
+
+        if(committer == null){
+            sync(sequence);
+        }
+        return sequence;
+    }
+
+    /**
+     * Waits until every change appended so far is on disk, writing them now if the committer hasn't
+     *
+     * @throws IOException Thrown if the changes can't be written, or an earlier commit failed
+     */
+    public void sync() throws IOException {
+        long sequence;
+        synchronized(this){
+            sequence = lastSequence;
+        }
+        sync(sequence);
+    }
+
+    /**
+     * Waits until the change with the given sequence number is on disk, writing it now if it hasn't been
+     *
+     * @param sequence The sequence number of the change
+     * @throws IOException Thrown if the change can't be written
+     */
+    private void sync(long sequence) throws IOException {
+        if(durableSequence >= sequence){
+            return;
+        }
+
+        synchronized(channelLock){
+            //Another caller may have committed the change while this one waited for the channel
+            if(durableSequence < sequence){
+                commit();
+            }
+        }
+    }
+
+    /**
+     * Writes every buffered change to the active segment with one write and forces it to disk. Callers hold
+     * channelLock. If the write or force fails the segment is cut back to the changes already committed, so it never
+     * ends in a partly written line, the changes stay buffered and the log fails from then on.
+     *
+     * @throws IOException Thrown if the changes can't be written, or an earlier commit failed
+     */
+    private void commit() throws IOException {
+        ByteArrayOutputStream changes;
+        long sequence;
+        synchronized(this){
+            if(failure != null){
+                throw failed();
+            }
+            if(pending.size() == 0){
+                return;
+            }
+            changes = pending;
+            sequence = lastSequence;
+            pending = new ByteArrayOutputStream();
+        }
+
+        byte[] bytes = changes.toByteArray();
+        try{
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while(buffer.hasRemaining()){
+                active.write(buffer);
+            }
+            active.force(false);
+        }
+        catch(IOException e){
+            try{
+                active.truncate(committedSize);
+            }
+            catch(IOException truncateFailure){
+                e.addSuppressed(truncateFailure);
+            }
+
+            synchronized(this){
+                failure = e;
+                //Put the changes back ahead of any appended since, they were never made durable
+                changes.writeBytes(pending.toByteArray());
+                pending = changes;
+            }
+            throw e;
+        }
+        committedSize += bytes.length;
+        durableSequence = sequence;
+    }
+
+    /**
+     * Callers hold the lock on this log
+     *
+     * @return The exception thrown by every use of the log after a commit has failed
+     */
+    private IOException failed(){
+        return new IOException("An earlier write to the mutation log failed, its changes may not be on disk", failure);
+    }
+
+    /**
+     * Run by the committer. Waits for a change to be appended, collects changes for the commit window and commits them
+     */
+    private void commitLoop(){
+        try{
+            while(true){
+                synchronized(this){
+                    while(pending.size() == 0 && !closed){
+                        wait();
+                    }
+                    if(closed){
+                        return;
+                    }
+                }
+
+                Thread.sleep(commitWindowMillis);
+                synchronized(channelLock){
+                    try{
+                        commit();
+                    }
+                    catch(IOException e){
+                        //Every later sync and append reports the failure, so there is nothing left to commit
+                        LOGGER.error("Committing changes to the mutation log failed", e);
+                        return;
+                    }
+                }
+            }
+        }
+        catch(InterruptedException e){
+            //Closing, close() commits whatever is left
+        }
+    }
+
+    /**
+     * @return The sequence number of the last change logged
+     */
+    public synchronized long lastSequence(){
+        return lastSequence;
+    }
+
+    /**
+     * @return The number of changes appended since the log was last rolled
+     */
+    public synchronized long activeRecords(){
+        return activeRecords;
+    }
+
+    /**
+     * Closes the active segment and starts a new one. The closed segment keeps its changes until
+     * {@link #deleteThrough} is called with a sequence number at least as high as its last change.
+     *
+     * @throws IOException Thrown if the segment can't be closed or renamed, or the new one can't be opened
+     */
+    public void roll() throws IOException {
+        synchronized(channelLock){
+            commit();
+
+            synchronized(this){
+                if(activeRecords == 0){
+                    return;
+                }
+
+                active.force(true);
+                active.close();
+                Files.move(activeFile, rolledSegment(activeFile, durableSequence), StandardCopyOption.ATOMIC_MOVE);
+
+                active = FileChannel.open(activeFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+                committedSize = 0;
+                activeRecords = 0;
+            }
+        }
+    }
+
+    /**
+     * Deletes the rolled segments whose changes all come at or before the given sequence number
+     *
+     * @param sequence The sequence number of the last change included in a snapshot that has been written
+     * @throws IOException Thrown if a segment can't be deleted
+     */
+    public synchronized void deleteThrough(long sequence) throws IOException {
+        ArrayList<Path> covered = new ArrayList<>(rolledSegments(activeFile).headMap(sequence, true).values());
+
+        for(Path segment : covered){
+            Files.deleteIfExists(segment);
+        }
+    }
+
+    /**
+     * Stops the committer, commits every buffered change and closes the active segment
+     *
+     * @throws IOException Thrown if the buffered changes can't be written or the segment can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized(this){
+            closed = true;
+            notifyAll();
+        }
+        if(committer != null){
+            committer.interrupt();
+            try{
+                committer.join();
+            }
+            catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized(channelLock){
+            try{
+                commit();
+            }
+            finally{
+                active.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.lukebroglio.BookAssociation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Routes changes to a {@link BookStorage} through a bounded queue drained by one writer thread. The writer takes every
+ * change waiting (up to a batch size) at once, applies them in order and then syncs the mutation log once for the whole
+ * batch if any change asked to be synced, so a burst of requests shares one write instead of each making its own.
+ * <p>
+ * Callers get a future that completes once their change has been applied (and synced, if asked), so request threads
+ * don't wait on the writer. When the queue is full new changes are rejected straight away rather than piling up.
+ *
+ * @author Luke Broglio
+ */
+public class MutationQueue {
+    /**
+     * The default number of changes that can wait for the writer
+     */
+    static final int DEFAULT_CAPACITY = 10_000;
+    /**
+     * The default maximum number of changes applied in one batch
+     */
+    static final int DEFAULT_BATCH_SIZE = 256;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MutationQueue.class);
+
+    /**
+     * A change waiting for the writer
+     *
+     * @param change Applies the change to the storage
+     * @param sync True if the change must be on disk before it completes
+     * @param done Completed once the change has been applied, or with the exception applying or syncing it threw
+     */
+    private record Mutation(Consumer<BookStorage> change, boolean sync, CompletableFuture<Void> done) {}
+
+    /**
+     * The storage changes are applied to
+     */
+    private final BookStorage storage;
+    /**
+     * The changes waiting for the writer, in the order they were submitted
+     */
+    private final ArrayBlockingQueue<Mutation> pending;
+    /**
+     * The maximum number of changes applied in one batch
+     */
+    private final int batchSize;
+    /**
+     * The writer thread, or null if it hasn't been started
+     */
+    private Thread writer;
+
+    /**
+     * Creates a queue whose writer isn't running yet. Changes are accepted until the queue is full but aren't applied
+     * until {@link #start} is called
+     *
+     * @param storage The storage to apply changes to
+     * @param capacity The number of changes that can wait for the writer
+     * @param batchSize The maximum number of changes applied in one batch
+     */
+    public MutationQueue(BookStorage storage, int capacity, int batchSize){
+        this.storage = storage;
+        this.pending = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Queues adding a Book with {@link BookStorage#addBook}
+     *
+     * @param toAdd The Book to add
+     * @param sync True if the change must be on disk before the returned future completes
+     * @return Completes once the Book has been added
+     * @throws RejectedExecutionException Thrown if the queue is full
+     */
+    public CompletableFuture<Void> addBook(Book toAdd, boolean sync){
+        return submit(storage -> storage.addBook(toAdd), sync);
+    }
+
+    /**
+     * Queues adding many Books with {@link BookStorage#addBooks}. Waits for room in the queue instead of rejecting the
+     * change, since a caller streaming an import has already taken in part of it
+     *
+     * @param toAdd The Books to add
+     * @param sync True if the change must be on disk before the returned future completes
+     * @return Completes once the Books have been added
+     * @throws InterruptedException Thrown if the caller is interrupted while waiting for room
+     */
+    public CompletableFuture<Void> addBooks(List<Book> toAdd, boolean sync) throws InterruptedException {
+        Mutation mutation = new Mutation(storage -> storage.addBooks(toAdd), sync, new CompletableFuture<>());
+        pending.put(mutation);
+        return mutation.done();
+    }
+
+    /**
+     * Queues tagging a Book with {@link BookStorage#tagBook}
+     *
+     * @param title The title of the Book to tag
+     * @param tag The tag to add or to increase the weight of
+     * @param sync True if the change must be on disk before the returned future completes
+     * @return Completes once the Book has been tagged, or exceptionally if no Book has the title
+     * @throws RejectedExecutionException Thrown if the queue is full
+     */
+    public CompletableFuture<Void> tagBook(String title, String tag, boolean sync){
+        return submit(storage -> storage.tagBook(title, tag), sync);
+    }
+
+    /**
+     * Queues a change to be applied by the writer
+     *
+     * @param change Applies the change to the storage
+     * @param sync True if the change must be on disk before the returned future completes
+     * @return Completes once the change has been applied
+     * @throws RejectedExecutionException Thrown if the queue is full
+     */
+    public CompletableFuture<Void> submit(Consumer<BookStorage> change, boolean sync){
+        Mutation mutation = new Mutation(change, sync, new CompletableFuture<>());
+
+        if(!pending.offer(mutation)){
+            throw new RejectedExecutionException("Too many changes are waiting to be applied");
+        }
+        return mutation.done();
+    }
+
+    /**
+     * Starts the writer thread
+     */
+    public synchronized void start(){
+        if(writer == null){
+            writer = new Thread(this::run, "book-storage-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Stops the writer thread once it finishes its current batch. Changes still waiting aren't applied
+     */
+    public synchronized void stop(){
+        if(writer != null){
+            writer.interrupt();
+            writer = null;
+        }
+    }
+
+    /**
+     * Applies batches of changes until the writer is interrupted
+     */
+    private void run(){
+        ArrayList<Mutation> batch = new ArrayList<>(batchSize);
+
+        while(!Thread.currentThread().isInterrupted()){
+            try{
+                batch.add(pending.take());
+            }
+            catch(InterruptedException e){
+                return;
+            }
+            pending.drainTo(batch, batchSize - 1);
+
+            applyBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Applies a batch of changes in order, then syncs once if any of them asked for it
+     *
+     * @param batch The changes to apply
+     */
+    private void applyBatch(ArrayList<Mutation> batch){
+        boolean sync = false;
+
+        for(Mutation mutation : batch){
+            try{
+                mutation.change().accept(storage);
+            }
+            catch(RuntimeException e){
+                mutation.done().completeExceptionally(e);
+                continue;
+            }
+
+            if(mutation.sync()){
+                sync = true;
+            }
+            else{
+                mutation.done().complete(null);
+            }
+        }
+
+        if(!sync){
+            return;
+        }
+
+        IOException syncFailure = null;
+        try{
+            storage.sync();
+        }
+        catch(IOException e){
+            LOGGER.error("Syncing a batch of {} changes failed", batch.size(), e);
+            syncFailure = e;
+        }
+
+        for(Mutation mutation : batch){
+            if(syncFailure == null){
+                mutation.done().complete(null);
+            }
+            else{
+                mutation.done().completeExceptionally(syncFailure);
+            }
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package com.lukebroglio.BookAssociation;
+
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable hash map. Adding or removing an entry returns a new map that shares every part of the old map's
+ * structure it didn't have to change, so keeping many versions of a large map costs little more than keeping one.
+ * <p>
+ * Entries are stored in a hash array mapped trie: each level of the trie is indexed by the next 5 bits of a key's hash,
+ * and each node only holds slots for the indexes in use, recorded in a bitmap. A change copies the nodes on the path
+ * to its key, which is at most 7 nodes of at most 32 entries. Keys with the same full hash share a collision node.
+ * Neither keys nor values may be null.
+ *
+ * @author Luke Broglio
+ * @param <K> The type of the keys
+ * @param <V> The type of the values
+ */
+public final class PersistentMap<K, V> {
+    /**
+     * The number of hash bits used to index each level of the trie
+     */
+    private static final int BITS = 5;
+    /**
+     * Selects the index of a level from a shifted hash
+     */
+    private static final int MASK = (1 << BITS) - 1;
+    /**
+     * The map with no entries
+     */
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(BitmapNode.EMPTY, 0);
+
+    /**
+     * The root of the trie
+     */
+    private final Node root;
+    /**
+     * The number of entries in this map
+     */
+    private final int size;
+
+    /**
+     * @param root The root of the trie
+     * @param size The number of entries in the trie
+     */
+    private PersistentMap(Node root, int size){
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * @param <K> The type of the keys
+     * @param <V> The type of the values
+     * @return The map with no entries
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty(){
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    /**
+     * @return The number of entries in this map
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * @return True if this map has no entries
+     */
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /**
+     * @param key The key to look up
+     * @return The value associated with the key, or null if the key isn't in this map
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key){
+        return (V) root.find(key, hash(key), 0);
+    }
+
+    /**
+     * @param key The key to look for
+     * @return True if the key is in this map
+     */
+    public boolean containsKey(Object key){
+        return get(key) != null;
+    }
+
+    /**
+     * Associates a key with a value
+     *
+     * @param key The key
+     * @param value The value to associate with it
+     * @return A map holding the entries of this map with the key associated with the value. This map if the key was
+     * already associated with the same value
+     */
+    public PersistentMap<K, V> with(K key, V value){
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+
+        boolean[] added = {false};
+        Node newRoot = root.with(key, hash(key), value, 0, added);
+        return (newRoot == root) ? this : new PersistentMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Removes a key
+     *
+     * @param key The key to remove
+     * @return A map holding the entries of this map except the key's. This map if the key wasn't in it
+     */
+    public PersistentMap<K, V> without(Object key){
+        Node newRoot = root.without(key, hash(key), 0);
+
+        if(newRoot == root){
+            return this;
+        }
+        return (newRoot == null) ? empty() : new PersistentMap<>(newRoot, size - 1);
+    }
+
+    /**
+     * Calls the given action with every entry in this map. Entries are given in no particular order
+     *
+     * @param action The action to run for each entry
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action){
+        root.forEach((key, value) -> action.accept((K) key, (V) value));
+    }
+
+    /**
+     * Spreads the higher bits of a hash code into the lower bits used by the first levels of the trie
+     *
+     * @param key The key to hash
+     * @return The hash of the key
+     */
+    private static int hash(Object key){
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Creates a node holding two entries whose keys differ
+     *
+     * @param key1 The key of the first entry
+     * @param hash1 The hash of the first key
+     * @param value1 The value of the first entry
+     * @param key2 The key of the second entry
+     * @param hash2 The hash of the second key
+     * @param value2 The value of the second entry
+     * @param shift The number of hash bits used by the levels above the node
+     * @return A new node holding both entries
+     */
+    private static Node pair(Object key1, int hash1, Object value1, Object key2, int hash2, Object value2, int shift){
+        if(hash1 == hash2){
+            return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+        }
+
+        boolean[] added = {false};
+        return BitmapNode.EMPTY.with(key1, hash1, value1, shift, added).with(key2, hash2, value2, shift, added);
+    }
+
+    /**
+     * A node of the trie. Nodes are never changed once they have been built
+     */
+    private abstract static class Node {
+        /**
+         * @param key The key to look up
+         * @param hash The hash of the key
+         * @param shift The number of hash bits used by the levels above this node
+         * @return The value of the key, or null if it isn't under this node
+         */
+        abstract Object find(Object key, int hash, int shift);
+
+        /**
+         * @param key The key to associate with the value
+         * @param hash The hash of the key
+         * @param value The value
+         * @param shift The number of hash bits used by the levels above this node
+         * @param added Set to true if the key wasn't under this node already
+         * @return A node holding this node's entries with the key associated with the value, or this node if nothing
+         * changed
+         */
+        abstract Node with(Object key, int hash, Object value, int shift, boolean[] added);
+
+        /**
+         * @param key The key to remove
+         * @param hash The hash of the key
+         * @param shift The number of hash bits used by the levels above this node
+         * @return A node holding this node's entries without the key, this node if the key wasn't under it, or null if
+         * the key was its only entry
+         */
+        abstract Node without(Object key, int hash, int shift);
+
+        /**
+         * @param action Called with every entry under this node
+         */
+        abstract void forEach(BiConsumer<Object, Object> action);
+    }
+
+    /**
+     * A level of the trie. Holds two slots for each of the 32 indexes in use: a key and its value, or null and the
+     * node holding the entries whose hashes share that index
+     */
+    private static final class BitmapNode extends Node {
+        /**
+         * The node with no entries
+         */
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        /**
+         * Has a bit set for every index in use
+         */
+        private final int bitmap;
+        /**
+         * The slots of the indexes in use, in order of index
+         */
+        private final Object[] slots;
+
+        /**
+         * @param bitmap Has a bit set for every index in use
+         * @param slots The slots of the indexes in use, in order of index
+         */
+        BitmapNode(int bitmap, Object[] slots){
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        /**
+         * @param bit The bit of an index in use
+         * @return The position of the index's first slot
+         */
+        private int slotOf(int bit){
+            return Integer.bitCount(bitmap & (bit - 1)) * 2;
+        }
+
+        /**
+         * @param slot The position of the slot to replace
+         * @param value The new contents of the slot
+         * @return A copy of this node with one slot replaced
+         */
+        private BitmapNode replacing(int slot, Object value){
+            Object[] copy = slots.clone();
+            copy[slot] = value;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        @Override
+        Object find(Object key, int hash, int shift){
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if((bitmap & bit) == 0){
+                return null;
+            }
+
+            int slot = slotOf(bit);
+            Object slotKey = slots[slot];
+            if(slotKey == null){
+                return ((Node) slots[slot + 1]).find(key, hash, shift + BITS);
+            }
+            return key.equals(slotKey) ? slots[slot + 1] : null;
+        }
+
+        @Override
+        Node with(Object key, int hash, Object value, int shift, boolean[] added){
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int slot = slotOf(bit);
+
+            if((bitmap & bit) == 0){
+                Object[] copy = new Object[slots.length + 2];
+                System.arraycopy(slots, 0, copy, 0, slot);
+                copy[slot] = key;
+                copy[slot + 1] = value;
+                System.arraycopy(slots, slot, copy, slot + 2, slots.length - slot);
+
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, copy);
+            }
+
+            Object slotKey = slots[slot];
+            Object slotValue = slots[slot + 1];
+            if(slotKey == null){
+                Node child = ((Node) slotValue).with(key, hash, value, shift + BITS, added);
+                return (child == slotValue) ? this : replacing(slot + 1, child);
+            }
+            if(key.equals(slotKey)){
+                return (value == slotValue) ? this : replacing(slot + 1, value);
+            }
+
+            //Two keys share this index, so push both down into a new level
+            added[0] = true;
+            Object[] copy = slots.clone();
+            copy[slot] = null;
+            copy[slot + 1] = pair(slotKey, PersistentMap.hash(slotKey), slotValue, key, hash, value, shift + BITS);
+            return new BitmapNode(bitmap, copy);
+        }
+
+        @Override
+        Node without(Object key, int hash, int shift){
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if((bitmap & bit) == 0){
+                return this;
+            }
+
+            int slot = slotOf(bit);
+            Object slotKey = slots[slot];
+            if(slotKey == null){
+                Node child = ((Node) slots[slot + 1]).without(key, hash, shift + BITS);
+                if(child == slots[slot + 1]){
+                    return this;
+                }
+                if(child != null){
+                    return replacing(slot + 1, child);
+                }
+            }
+            else if(!key.equals(slotKey)){
+                return this;
+            }
+
+            //The index is no longer in use
+            if(bitmap == bit){
+                return null;
+            }
+            Object[] copy = new Object[slots.length - 2];
+            System.arraycopy(slots, 0, copy, 0, slot);
+            System.arraycopy(slots, slot + 2, copy, slot, slots.length - slot - 2);
+            return new BitmapNode(bitmap & ~bit, copy);
+        }
+
+        @Override
+        void forEach(BiConsumer<Object, Object> action){
+            for(int i = 0; i < slots.length; i += 2){
+                if(slots[i] == null){
+                    ((Node) slots[i + 1]).forEach(action);
+                }
+                else{
+                    action.accept(slots[i], slots[i + 1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Holds the entries of keys that have the same full hash as pairs of key and value slots
+     */
+    private static final class CollisionNode extends Node {
+        /**
+         * The hash shared by every key in this node
+         */
+        private final int hash;
+        /**
+         * Every key followed by its value
+         */
+        private final Object[] slots;
+
+        /**
+         * @param hash The hash shared by every key
+         * @param slots Every key followed by its value
+         */
+        CollisionNode(int hash, Object[] slots){
+            this.hash = hash;
+            this.slots = slots;
+        }
+
+        /**
+         * @param key A key
+         * @return The position of the key's slot, or -1 if it isn't in this node
+         */
+        private int slotOf(Object key){
+            for(int i = 0; i < slots.length; i += 2){
+                if(key.equals(slots[i])){
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Object find(Object key, int hash, int shift){
+            if(hash != this.hash){
+                return null;
+            }
+
+            int slot = slotOf(key);
+            return (slot < 0) ? null : slots[slot + 1];
+        }
+
+        @Override
+        Node with(Object key, int hash, Object value, int shift, boolean[] added){
+            if(hash != this.hash){
+                //Put this node below a new level that tells the hashes apart
+                BitmapNode level = new BitmapNode(1 << ((this.hash >>> shift) & MASK), new Object[]{null, this});
+                return level.with(key, hash, value, shift, added);
+            }
+
+            int slot = slotOf(key);
+            if(slot >= 0){
+                if(slots[slot + 1] == value){
+                    return this;
+                }
+                Object[] copy = slots.clone();
+                copy[slot + 1] = value;
+                return new CollisionNode(hash, copy);
+            }
+
+            Object[] copy = new Object[slots.length + 2];
+            System.arraycopy(slots, 0, copy, 0, slots.length);
+            copy[slots.length] = key;
+            copy[slots.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        Node without(Object key, int hash, int shift){
+            int slot = (hash == this.hash) ? slotOf(key) : -1;
+            if(slot < 0){
+                return this;
+            }
+            if(slots.length == 2){
+                return null;
+            }
+
+            Object[] copy = new Object[slots.length - 2];
+            System.arraycopy(slots, 0, copy, 0, slot);
+            System.arraycopy(slots, slot + 2, copy, slot, slots.length - slot - 2);
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        void forEach(BiConsumer<Object, Object> action){
+            for(int i = 0; i < slots.length; i += 2){
+                action.accept(slots[i], slots[i + 1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.lukebroglio.BookAssociation;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the ranked lists of related Books produced by {@link BookStorage#getRelated}. The cache is bounded both by the
+ * number of Books it holds lists for and by the total length of the cached lists, and evicts the least recently used
+ * lists first. Lists are invalidated by title when the Books they depend on change.
+ * Cached lists are shared between callers and must not be modified.
+ *
+ * @author Luke Broglio
+ */
+public class RelatedCache {
+    /**
+     * A cached list of related Books
+     *
+     * @param limit The limit the list was computed with
+     * @param related The related Books found
+     */
+    private record Entry(int limit, WeightedList<Book> related) {
+        /**
+         * Checks if this entry can answer a request for the given number of related Books. It can if it was computed
+         * with at least that limit, or if it holds every related Book.
+         *
+         * @param requested The number of Books requested
+         * @return True if this entry can be used for the request
+         */
+        boolean covers(int requested){
+            return limit >= requested || related.size() < limit;
+        }
+    }
+
+    /**
+     * The cached lists associated with the title of the Book they are related to, in least recently used order
+     */
+    private final LinkedHashMap<String, Entry> entries;
+    /**
+     * The maximum number of titles to cache lists for
+     */
+    private final int maxEntries;
+    /**
+     * The maximum total number of Books held across all the cached lists
+     */
+    private final long maxCachedBooks;
+    /**
+     * The total number of Books currently held across all the cached lists
+     */
+    private long cachedBooks;
+    /**
+     * Counts invalidations. A list computed while an invalidation happened may be stale so it isn't cached
+     */
+    private long generation;
+
+    /**
+     * Creates a new empty RelatedCache
+     *
+     * @param maxEntries The maximum number of titles to cache lists for
+     * @param maxCachedBooks The maximum total number of Books held across all the cached lists
+     */
+    public RelatedCache(int maxEntries, long maxCachedBooks){
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxEntries = maxEntries;
+        this.maxCachedBooks = maxCachedBooks;
+    }
+
+    /**
+     * @return The current generation of the cache. Pass it to {@link #put} with the list computed after reading it
+     */
+    public synchronized long generation(){
+        return generation;
+    }
+
+    /**
+     * Gets the cached list of Books related to the given title
+     *
+     * @param title The title of the Book the list is related to
+     * @param limit The maximum number of related Books wanted
+     * @return The cached list cut down to limit Books, or null if no usable list is cached
+     */
+    public synchronized WeightedList<Book> get(String title, int limit){
+        Entry entry = entries.get(title);
+
+        if(entry == null || !entry.covers(limit)){
+            return null;
+        }
+        if(entry.related().size() <= limit){
+            return entry.related();
+        }
+
+        //The cached list is already in order so the first limit Books are the best limit Books
+        WeightedList.Builder<Book> cut = new WeightedList.Builder<>(limit);
+        for(int i = 0; i < limit; i++){
+            cut.add(entry.related().get(i), entry.related().getWeight(i));
+        }
+        return cut.build();
+    }
+
+    /**
+     * Caches a list of related Books unless the cache has been invalidated since the list was started
+     *
+     * @param title The title of the Book the list is related to
+     * @param limit The limit the list was computed with
+     * @param related The related Books found
+     * @param startGeneration The {@link #generation()} read before the list was computed
+     */
+    public synchronized void put(String title, int limit, WeightedList<Book> related, long startGeneration){
+        if(startGeneration != generation || related.size() > maxCachedBooks){
+            return;
+        }
+
+        Entry replaced = entries.put(title, new Entry(limit, related));
+        if(replaced != null){
+            cachedBooks -= replaced.related().size();
+        }
+        cachedBooks += related.size();
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while(entries.size() > maxEntries || cachedBooks > maxCachedBooks){
+            cachedBooks -= eldest.next().getValue().related().size();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops the cached list for the given title
+     *
+     * @param title The title of the Book whose related list is out of date
+     */
+    public synchronized void invalidate(String title){
+        generation++;
+
+        Entry removed = entries.remove(title);
+        if(removed != null){
+            cachedBooks -= removed.related().size();
+        }
+    }
+
+    /**
+     * Drops the cached list of every title in the given postings. Whichever of the cache and the postings is smaller is
+     * walked, so invalidating a popular tag costs nothing when few lists are cached.
+     *
+     * @param taggedBooks The titles whose related lists are out of date, weighted by a tag's weight
+     */
+    public synchronized void invalidateAll(PersistentMap<String, Integer> taggedBooks){
+        generation++;
+
+        if(entries.size() < taggedBooks.size()){
+            Iterator<Map.Entry<String, Entry>> cached = entries.entrySet().iterator();
+            while(cached.hasNext()){
+                Map.Entry<String, Entry> entry = cached.next();
+                if(taggedBooks.containsKey(entry.getKey())){
+                    cachedBooks -= entry.getValue().related().size();
+                    cached.remove();
+                }
+            }
+        }
+        else{
+            taggedBooks.forEach((title, weight) -> {
+                Entry removed = entries.remove(title);
+                if(removed != null){
+                    cachedBooks -= removed.related().size();
+                }
+            });
+        }
+    }
+}
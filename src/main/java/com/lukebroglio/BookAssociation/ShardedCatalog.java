@@ -0,0 +1,241 @@
+package com.lukebroglio.BookAssociation;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Splits a saved catalog into shard files by the hash of each Book's title so a snapshot only has to rewrite the shards
+ * holding Books that changed. Each shard is a file in the format written by {@link MemoryBookStorage#saveBooks}
+ * named shard-i.json in the catalog's directory. A manifest file records the number of shards and the last logged change
+ * every shard includes; each shard also records the last logged change it includes itself, so a crash part way through
+ * rewriting shards never replays a change twice.
+ * <p>
+ * The titles of the Books in each shard are tracked along with the titles changed since the shards were last written.
+ *
+ * @author Luke Broglio
+ */
+public class ShardedCatalog {
+    /**
+     * The name of the manifest file
+     */
+    private static final String MANIFEST = "manifest.json";
+
+    /**
+     * The directory holding the shard files
+     */
+    private final Path directory;
+    /**
+     * The number of shards
+     */
+    private final int shardCount;
+    /**
+     * The sequence number of the last logged change included in each shard
+     */
+    private final long[] shardSequences;
+    /**
+     * The titles of the Books in each shard
+     */
+    private final List<Set<String>> shardTitles;
+    /**
+     * The titles of the Books changed since the shards were last written
+     */
+    private final Set<String> dirtyTitles;
+    /**
+     * True if the directory held a manifest when it was opened
+     */
+    private final boolean existing;
+
+    /**
+     * @param directory The directory holding the shard files
+     * @param shardCount The number of shards
+     * @param manifestSequence The last logged change every shard includes
+     * @param existing True if the directory held a manifest
+     */
+    private ShardedCatalog(Path directory, int shardCount, long manifestSequence, boolean existing){
+        this.directory = directory;
+        this.shardCount = shardCount;
+        this.shardSequences = new long[shardCount];
+        this.shardTitles = new ArrayList<>(shardCount);
+        this.dirtyTitles = ConcurrentHashMap.newKeySet();
+        this.existing = existing;
+
+        Arrays.fill(shardSequences, manifestSequence);
+        for(int i = 0; i < shardCount; i++){
+            shardTitles.add(ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    /**
+     * Opens the sharded catalog in a directory. The number of shards of an existing catalog is read from its manifest
+     *
+     * @param directory The directory holding the shard files
+     * @param shardCount The number of shards to use if the directory doesn't hold a catalog yet
+     * @return The opened catalog. Its Books are read with {@link #load}
+     * @throws IOException Thrown if the manifest can't be read
+     */
+    public static ShardedCatalog open(Path directory, int shardCount) throws IOException {
+        Path manifestFile = directory.resolve(MANIFEST);
+        if(!Files.exists(manifestFile)){
+            return new ShardedCatalog(directory, shardCount, 0, false);
+        }
+
+        JSONObject manifest = new JSONObject(Files.readString(manifestFile, StandardCharsets.UTF_8));
+        return new ShardedCatalog(directory, manifest.getInt("shards"), manifest.getLong("lastLogSequence"), true);
+    }
+
+    /**
+     * @return True if the directory held a written catalog when it was opened
+     */
+    public boolean exists(){
+        return existing;
+    }
+
+    /**
+     * @param title The title of a Book
+     * @return The shard the Book belongs to
+     */
+    public int shardOf(String title){
+        return Math.floorMod(title.hashCode(), shardCount);
+    }
+
+    /**
+     * @return The number of shards
+     */
+    public int shardCount(){
+        return shardCount;
+    }
+
+    /**
+     * @param shard A shard
+     * @return The path of the shard's file
+     */
+    public Path shardFile(int shard){
+        return directory.resolve("shard-" + shard + ".json");
+    }
+
+    /**
+     * @param title The title of a Book
+     * @return The sequence number of the last logged change included in the Book's shard
+     */
+    public long sequenceOf(String title){
+        return shardSequences[shardOf(title)];
+    }
+
+    /**
+     * @return The lowest sequence number of the last logged change included in any shard. Changes after it may need to
+     * be replayed
+     */
+    public long lowestSequence(){
+        return Arrays.stream(shardSequences).min().orElse(0);
+    }
+
+    /**
+     * Reads every shard in parallel. Shards without a file are empty
+     *
+     * @param sink Given every Book read. Called from many threads at once
+     * @throws IOException Thrown if a shard can't be read
+     */
+    public void load(Consumer<Book> sink) throws IOException {
+        try{
+            IntStream.range(0, shardCount).parallel().forEach(shard -> {
+                Path file = shardFile(shard);
+                if(Files.exists(file)){
+                    try{
+                        long sequence = CatalogReader.read(file, book -> {
+                            shardTitles.get(shard).add(book.getTitle());
+                            sink.accept(book);
+                        });
+                        shardSequences[shard] = Math.max(shardSequences[shard], sequence);
+                    }
+                    catch(IOException e){
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        }
+        catch(UncheckedIOException e){
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Records that a Book has changed so its shard is rewritten by the next snapshot
+     *
+     * @param title The title of the Book that changed
+     */
+    public void markDirty(String title){
+        shardTitles.get(shardOf(title)).add(title);
+        dirtyTitles.add(title);
+    }
+
+    /**
+     * Takes the shards holding Books changed since this was last called. Callers hold the lock changes are made under
+     *
+     * @return The shards to rewrite
+     */
+    public int[] takeDirtyShards(){
+        int[] shards = dirtyTitles.stream().mapToInt(this::shardOf).distinct().sorted().toArray();
+        dirtyTitles.clear();
+        return shards;
+    }
+
+    /**
+     * Marks shards as changed again after writing them failed
+     *
+     * @param shards The shards that weren't written
+     */
+    public void restoreDirtyShards(int[] shards){
+        for(int shard : shards){
+            dirtyTitles.addAll(shardTitles.get(shard));
+        }
+    }
+
+    /**
+     * @param shard A shard
+     * @return The titles of the Books in the shard
+     */
+    public Set<String> titlesOf(int shard){
+        return shardTitles.get(shard);
+    }
+
+    /**
+     * Writes a manifest saying every shard includes the changes up to the given log position. Only valid once every
+     * shard holding a changed Book has been written with that position
+     *
+     * @param sequence The sequence number of the last logged change the shards include
+     * @throws IOException Thrown if the manifest can't be written
+     */
+    public void writeManifest(long sequence) throws IOException {
+        JSONObject manifest = new JSONObject();
+        manifest.put("shards", shardCount);
+        manifest.put("lastLogSequence", sequence);
+
+        Path manifestFile = directory.resolve(MANIFEST);
+        Path tempFile = directory.resolve(MANIFEST + ".tmp");
+        try(FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            channel.write(ByteBuffer.wrap(manifest.toString().getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+        Files.move(tempFile, manifestFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        //Shards that weren't rewritten held no changed Books, so they include every change up to sequence too
+        Arrays.fill(shardSequences, sequence);
+    }
+}
@@ -0,0 +1,226 @@
+package com.lukebroglio.BookAssociation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Holds the top N most related Books of every Book in a catalog, computed ahead of time by comparing every pair of
+ * Books. Scores are the same as {@link Book#getSimilarityRanking}. A SimilarityMatrix can be written to a compact binary
+ * file and read back so a server can answer related queries from it directly.
+ * <p>
+ * File layout (all values big endian): the int {@link #MAGIC}, the int number of Books, every title (modified UTF-8 as
+ * written by {@link DataOutputStream#writeUTF}), then for every Book its int neighbor count followed by that many
+ * (int neighbor index, int score) pairs in order of score.
+ *
+ * @author Luke Broglio
+ */
+public class SimilarityMatrix {
+    /**
+     * Identifies similarity matrix files
+     */
+    private static final int MAGIC = 0x53494D31;
+    /**
+     * The number of Books in each block of the all-pairs comparison. Each row block is compared against one column
+     * block at a time so the column block's tag vectors stay in cache
+     */
+    private static final int BLOCK_SIZE = 256;
+
+    /**
+     * The titles of the Books in the matrix
+     */
+    private final String[] titles;
+    /**
+     * Associates each title with its index in titles
+     */
+    private final HashMap<String, Integer> indexOfTitle;
+    /**
+     * The indexes of every Book's most related Books in order of score
+     */
+    private final int[][] neighbors;
+    /**
+     * The similarity rankings of every Book's most related Books. The score of neighbors[i][j] is at scores[i][j]
+     */
+    private final int[][] scores;
+
+    /**
+     * @param titles The titles of the Books in the matrix
+     * @param neighbors The indexes of every Book's most related Books in order of score
+     * @param scores The similarity rankings of every Book's most related Books
+     */
+    private SimilarityMatrix(String[] titles, int[][] neighbors, int[][] scores){
+        this.titles = titles;
+        this.neighbors = neighbors;
+        this.scores = scores;
+        this.indexOfTitle = new HashMap<>(titles.length * 2);
+
+        for(int i = 0; i < titles.length; i++){
+            indexOfTitle.put(titles[i], i);
+        }
+    }
+
+    /**
+     * Compares every pair of the given Books and keeps the topN most related Books of each.
+     * The comparison is split into blocks of rows which are scored on all cores.
+     *
+     * @param books The Books to compare
+     * @param topN The number of related Books to keep for each Book
+     * @return A new SimilarityMatrix of the given Books
+     */
+    public static SimilarityMatrix compute(Book[] books, int topN){
+        int count = books.length;
+        String[] titles = new String[count];
+        TagVector[] vectors = new TagVector[count];
+        HashMap<Book, Integer> indexOfBook = new HashMap<>(count * 2);
+
+        for(int i = 0; i < count; i++){
+            titles[i] = books[i].getTitle();
+            vectors[i] = books[i].tagVector();
+            indexOfBook.put(books[i], i);
+        }
+
+        int[][] neighbors = new int[count][];
+        int[][] scores = new int[count][];
+        int blocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+        IntStream.range(0, blocks).parallel().forEach(rowBlock -> {
+            int rowStart = rowBlock * BLOCK_SIZE;
+            int rowEnd = Math.min(rowStart + BLOCK_SIZE, count);
+
+            List<TopKSelector<Book>> selected = new ArrayList<>(rowEnd - rowStart);
+            for(int r = rowStart; r < rowEnd; r++){
+                selected.add(new TopKSelector<>(topN));
+            }
+
+            for(int columnStart = 0; columnStart < count; columnStart += BLOCK_SIZE){
+                int columnEnd = Math.min(columnStart + BLOCK_SIZE, count);
+
+                for(int r = rowStart; r < rowEnd; r++){
+                    for(int c = columnStart; c < columnEnd; c++){
+                        //The same dot product Book.getSimilarityRanking computes, on vectors fetched once up front
+                        int similarityRank = TagVector.dot(vectors[r], vectors[c]);
+
+                        if(similarityRank != 0 && r != c){
+                            selected.get(r - rowStart).offer(books[c], similarityRank);
+                        }
+                    }
+                }
+            }
+
+            for(int r = rowStart; r < rowEnd; r++){
+                WeightedList<Book> related = selected.get(r - rowStart).toWeightedList();
+                neighbors[r] = new int[related.size()];
+                scores[r] = new int[related.size()];
+
+                for(int j = 0; j < related.size(); j++){
+                    neighbors[r][j] = indexOfBook.get(related.get(j));
+                    scores[r][j] = related.getWeight(j);
+                }
+            }
+        });
+
+        return new SimilarityMatrix(titles, neighbors, scores);
+    }
+
+    /**
+     * Writes this matrix to a file
+     *
+     * @param file The file to write to
+     * @throws IOException Thrown if the file can't be written
+     */
+    public void write(Path file) throws IOException {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))){
+            out.writeInt(MAGIC);
+            out.writeInt(titles.length);
+
+            for(String title : titles){
+                out.writeUTF(title);
+            }
+            for(int i = 0; i < titles.length; i++){
+                out.writeInt(neighbors[i].length);
+                for(int j = 0; j < neighbors[i].length; j++){
+                    out.writeInt(neighbors[i][j]);
+                    out.writeInt(scores[i][j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a matrix written by {@link #write}
+     *
+     * @param file The file to read from
+     * @return The SimilarityMatrix stored in the file
+     * @throws IOException Thrown if the file can't be read or isn't a similarity matrix
+     */
+    public static SimilarityMatrix read(Path file) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))){
+            if(in.readInt() != MAGIC){
+                throw new IOException(file + " is not a similarity matrix file");
+            }
+
+            int count = in.readInt();
+            String[] titles = new String[count];
+            for(int i = 0; i < count; i++){
+                titles[i] = in.readUTF();
+            }
+
+            int[][] neighbors = new int[count][];
+            int[][] scores = new int[count][];
+            for(int i = 0; i < count; i++){
+                int neighborCount = in.readInt();
+                neighbors[i] = new int[neighborCount];
+                scores[i] = new int[neighborCount];
+
+                for(int j = 0; j < neighborCount; j++){
+                    neighbors[i][j] = in.readInt();
+                    scores[i][j] = in.readInt();
+                }
+            }
+
+            return new SimilarityMatrix(titles, neighbors, scores);
+        }
+    }
+
+    /**
+     * @return The number of Books in this matrix
+     */
+    public int size(){
+        return titles.length;
+    }
+
+    /**
+     * Gets the stored related Books of a Book
+     *
+     * @param title The title of the Book to get the related Books of
+     * @param limit The maximum number of Books to return
+     * @param lookup Finds the Book with a given title, returning null for Books that no longer exist
+     * @return The stored related Books in order of similarity ranking, or null if the title isn't in this matrix
+     */
+    public WeightedList<Book> related(String title, int limit, Function<String, Book> lookup){
+        Integer index = indexOfTitle.get(title);
+        if(index == null){
+            return null;
+        }
+
+        int count = Math.min(limit, neighbors[index].length);
+        WeightedList.Builder<Book> related = new WeightedList.Builder<>(count);
+        for(int j = 0; j < neighbors[index].length && related.size() < count; j++){
+            Book neighbor = lookup.apply(titles[neighbors[index][j]]);
+            if(neighbor != null){
+                related.add(neighbor, scores[index][j]);
+            }
+        }
+
+        return related.build();
+    }
+}
@@ -0,0 +1,159 @@
+package com.lukebroglio.BookAssociation;
+
+import java.util.Locale;
+
+/**
+ * The ways two Books' tags can be compared to score how related they are. Every scorer works from the Books' sparse
+ * {@link TagVector}s and statistics kept up to date as Books are tagged, so no scorer needs to look at the rest of the
+ * catalog. Fractional scores are multiplied by {@link #SCALE} and rounded so they can be used as list weights.
+ *
+ * @author Luke Broglio
+ */
+public enum SimilarityScorer {
+    /**
+     * The sum of the products of the weights of the shared tags. The same as {@link Book#getSimilarityRanking}
+     */
+    RAW {
+        @Override
+        int score(Book a, Book b, int dot, CatalogStatistics statistics){
+            return dot;
+        }
+    },
+    /**
+     * The cosine of the angle between the Books' tag vectors. Unlike RAW this doesn't favor heavily tagged Books
+     */
+    COSINE {
+        @Override
+        int score(Book a, Book b, int dot, CatalogStatistics statistics){
+            return cosine(dot, a.squaredNorm(), b.squaredNorm());
+        }
+    },
+    /**
+     * The number of tags the Books share divided by the number of distinct tags they have between them. Ignores weights
+     */
+    JACCARD {
+        @Override
+        int score(Book a, Book b, int dot, CatalogStatistics statistics){
+            return jaccard(TagVector.sharedCount(a.tagVector(), b.tagVector()), a.tagCount(), b.tagCount());
+        }
+    },
+    /**
+     * The RAW score with each shared tag's product multiplied by the square of the tag's inverse document frequency,
+     * so tags given to few Books count for more than tags given to most of the catalog
+     */
+    TFIDF {
+        @Override
+        int score(Book a, Book b, int dot, CatalogStatistics statistics){
+            int catalogSize = statistics.catalogSize();
+
+            return tfidf(TagVector.weightedDot(a.tagVector(), b.tagVector(),
+                    id -> squaredIdf(catalogSize, statistics.documentFrequency(id))));
+        }
+    };
+
+    /**
+     * Fractional scores between 0 and 1 are multiplied by this to turn them into weights
+     */
+    public static final int SCALE = 1_000_000;
+    /**
+     * TF-IDF scores are multiplied by this to keep their fractional part when they are turned into weights
+     */
+    private static final int TFIDF_SCALE = 1_000;
+
+    /**
+     * Statistics about the whole catalog used by the scorers, kept up to date by {@link MemoryBookStorage}
+     */
+    public interface CatalogStatistics {
+        /**
+         * @return The number of Books in the catalog
+         */
+        int catalogSize();
+
+        /**
+         * @param tagId The {@link TagDictionary} id of a tag
+         * @return The number of Books in the catalog that have the tag
+         */
+        int documentFrequency(int tagId);
+    }
+
+    /**
+     * Turns a fractional score between 0 and 1 into a weight
+     *
+     * @param score The score to turn into a weight
+     * @return The score multiplied by {@link #SCALE} and rounded
+     */
+    private static int scaled(double score){
+        return (int) Math.round(score * SCALE);
+    }
+
+    /**
+     * Computes the {@link #COSINE} score from the statistics of two Books. Shared with storage that computes the
+     * statistics itself instead of reading them from Books
+     *
+     * @param dot The RAW score of the Books
+     * @param squaredNormA The sum of the squares of the first Book's tag weights
+     * @param squaredNormB The sum of the squares of the second Book's tag weights
+     * @return The COSINE score of the Books
+     */
+    static int cosine(long dot, long squaredNormA, long squaredNormB){
+        double norms = Math.sqrt((double) squaredNormA * squaredNormB);
+
+        return (norms == 0) ? 0 : scaled(dot / norms);
+    }
+
+    /**
+     * Computes the {@link #JACCARD} score from the statistics of two Books
+     *
+     * @param shared The number of tags the Books share
+     * @param tagCountA The number of distinct tags the first Book has
+     * @param tagCountB The number of distinct tags the second Book has
+     * @return The JACCARD score of the Books
+     */
+    static int jaccard(int shared, int tagCountA, int tagCountB){
+        int union = tagCountA + tagCountB - shared;
+
+        return (union == 0) ? 0 : scaled((double) shared / union);
+    }
+
+    /**
+     * @param catalogSize The number of Books in the catalog
+     * @param documentFrequency The number of Books in the catalog that have a tag
+     * @return The square of the tag's inverse document frequency, which {@link #TFIDF} multiplies its products by
+     */
+    static double squaredIdf(int catalogSize, int documentFrequency){
+        double idf = Math.log((1.0 + catalogSize) / (1.0 + documentFrequency)) + 1;
+        return idf * idf;
+    }
+
+    /**
+     * Turns the sum of the shared tags' products, each multiplied by {@link #squaredIdf}, into a {@link #TFIDF} score
+     *
+     * @param weightedDot The weighted sum of the products
+     * @return The TFIDF score of the Books
+     */
+    static int tfidf(double weightedDot){
+        return (int) Math.min(Integer.MAX_VALUE, Math.round(weightedDot * TFIDF_SCALE));
+    }
+
+    /**
+     * Scores how related two Books are
+     *
+     * @param a The first Book
+     * @param b The second Book
+     * @param dot The RAW score of the Books, which callers have usually already computed
+     * @param statistics Statistics about the catalog the Books are in
+     * @return The score of the Books. Higher scores are more related
+     */
+    abstract int score(Book a, Book b, int dot, CatalogStatistics statistics);
+
+    /**
+     * Gets the scorer with the given name, ignoring case
+     *
+     * @param name The name of the scorer
+     * @return The scorer with the name
+     * @throws IllegalArgumentException Thrown if there is no scorer with the name
+     */
+    public static SimilarityScorer fromName(String name){
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+}
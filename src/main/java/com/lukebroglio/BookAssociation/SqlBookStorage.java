@@ -0,0 +1,725 @@
+package com.lukebroglio.BookAssociation;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link BookStorage} that keeps the catalog in an embedded H2 database instead of on the heap, so catalogs larger
+ * than memory can be served. Books, their authors and their tag weights are held in normalized tables, with the tag
+ * weights indexed by tag so related queries only read the rows of the tags they share with the starting Book.
+ * <p>
+ * Every change is committed to the database as it is made, so there is no mutation log to sync or compact, and none
+ * of the settings of {@link MemoryBookStorage} apply. Related queries are always exact: there is no approximate
+ * index, so approximate queries are answered with the exact query.
+ *
+ * @author Luke Broglio
+ */
+public class SqlBookStorage implements BookStorage {
+    /**
+     * Statements creating the tables and indexes if they don't exist yet
+     */
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS books(id BIGINT AUTO_INCREMENT PRIMARY KEY, title VARCHAR NOT NULL UNIQUE, "
+                    + "publisher VARCHAR, publication_date DATE)",
+            "CREATE TABLE IF NOT EXISTS authors(book_id BIGINT NOT NULL REFERENCES books(id) ON DELETE CASCADE, "
+                    + "position INT NOT NULL, first_name VARCHAR, last_name VARCHAR, middle_name VARCHAR, "
+                    + "title VARCHAR, suffix VARCHAR, PRIMARY KEY(book_id, position))",
+            "CREATE TABLE IF NOT EXISTS book_tags(book_id BIGINT NOT NULL REFERENCES books(id) ON DELETE CASCADE, "
+                    + "tag VARCHAR NOT NULL, weight INT NOT NULL, PRIMARY KEY(book_id, tag))",
+            //Covers the related query so it never has to read the table itself
+            "CREATE INDEX IF NOT EXISTS book_tags_tag ON book_tags(tag, book_id, weight)"
+    };
+    /**
+     * Sums the products of the weights of every tag each Book shares with the starting Book, whose tags and weights
+     * are passed in as arrays
+     */
+    private static final String RELATED_QUERY =
+            "SELECT o.book_id, SUM(s.weight * o.weight) AS similarity_rank "
+                    + "FROM UNNEST(CAST(? AS VARCHAR ARRAY), CAST(? AS INT ARRAY)) AS s(tag, weight) "
+                    + "JOIN book_tags o ON o.tag = s.tag "
+                    + "JOIN books b ON b.id = o.book_id "
+                    + "WHERE b.title <> ? "
+                    + "GROUP BY o.book_id "
+                    + "ORDER BY similarity_rank DESC, o.book_id "
+                    + "LIMIT ?";
+    /**
+     * Gathers the statistics every {@link SimilarityScorer} needs for each Book sharing a tag with the starting Book,
+     * whose tags, weights and squared inverse document frequencies are passed in as arrays: the RAW score, the number
+     * of shared tags, the products weighted by the squared inverse document frequencies, and each Book's own squared
+     * norm and tag count. Only the tag rows of the Books found are read a second time
+     */
+    private static final String SCORED_RELATED_QUERY =
+            "SELECT c.book_id, c.dot, c.shared, c.weighted, SUM(CAST(t.weight AS BIGINT) * t.weight), COUNT(*) "
+                    + "FROM (SELECT o.book_id, SUM(s.weight * o.weight) AS dot, COUNT(*) AS shared, "
+                    + "SUM(CAST(s.weight AS DOUBLE PRECISION) * o.weight * s.idf) AS weighted "
+                    + "FROM UNNEST(CAST(? AS VARCHAR ARRAY), CAST(? AS INT ARRAY), "
+                    + "CAST(? AS DOUBLE PRECISION ARRAY)) AS s(tag, weight, idf) "
+                    + "JOIN book_tags o ON o.tag = s.tag "
+                    + "JOIN books b ON b.id = o.book_id "
+                    + "WHERE b.title <> ? "
+                    + "GROUP BY o.book_id) c "
+                    + "JOIN book_tags t ON t.book_id = c.book_id "
+                    + "GROUP BY c.book_id, c.dot, c.shared, c.weighted";
+    /**
+     * Adds a tag to a Book with a weight of 1, or increases its weight if the Book already has it
+     */
+    private static final String TAG_UPSERT =
+            "MERGE INTO book_tags t USING (SELECT id FROM books WHERE title = ?) b "
+                    + "ON t.book_id = b.id AND t.tag = ? "
+                    + "WHEN MATCHED THEN UPDATE SET weight = t.weight + ? "
+                    + "WHEN NOT MATCHED THEN INSERT (book_id, tag, weight) VALUES (b.id, ?, ?)";
+
+    /**
+     * The SQLSTATE of a value too large for its column, raised when an upsert would take a weight past the largest an
+     * int holds
+     */
+    private static final String NUMERIC_OVERFLOW = "22003";
+
+    /**
+     * Hands out connections to the database
+     */
+    private final JdbcConnectionPool pool;
+    /**
+     * Counts the changes made through this storage. Only increased once a change is committed, so a response tagged
+     * with a version never holds data older than that version
+     */
+    private final AtomicLong version = new AtomicLong();
+    /**
+     * The precomputed related lists used by {@link #getRelatedPrecomputed}, or null if none are loaded
+     */
+    private volatile SimilarityMatrix similarityMatrix;
+
+    /**
+     * Connects to a database, creating the tables if they don't exist yet
+     *
+     * @param jdbcUrl The H2 JDBC URL of the database, for example jdbc:h2:file:./catalog
+     * @throws SQLException Thrown if the database can't be opened or the tables can't be created
+     */
+    public SqlBookStorage(String jdbcUrl) throws SQLException {
+        this.pool = JdbcConnectionPool.create(jdbcUrl, "sa", "");
+
+        try(Connection connection = pool.getConnection(); Statement statement = connection.createStatement()){
+            for(String sql : SCHEMA){
+                statement.execute(sql);
+            }
+        }
+    }
+
+    /**
+     * Imports a saved catalog if the database is empty. Once the database holds Books it is the catalog and the file is
+     * ignored
+     *
+     * @param snapshotFile Path to a catalog in the format written by {@link MemoryBookStorage#saveBooks} or
+     *                     {@link #saveBinaryCatalog}
+     * @throws IOException Thrown if the catalog can't be read
+     */
+    @Override
+    public void open(String snapshotFile) throws IOException {
+        Path snapshot = Path.of(snapshotFile);
+        if(!isEmpty() || !Files.exists(snapshot)){
+            return;
+        }
+
+        if(BinaryCatalog.isBinaryCatalog(snapshot)){
+            BinaryCatalog catalog = BinaryCatalog.open(snapshot);
+            for(int i = 0; i < catalog.size(); i++){
+                addBook(catalog.bookAt(i));
+            }
+        }
+        else{
+            CatalogReader.read(snapshot, this::addBook);
+        }
+    }
+
+    /**
+     * @return True if the database holds no Books
+     */
+    private boolean isEmpty(){
+        try(Connection connection = pool.getConnection(); Statement statement = connection.createStatement();
+            ResultSet result = statement.executeQuery("SELECT 1 FROM books LIMIT 1")){
+            return !result.next();
+        }
+        catch(SQLException e){
+            throw new IllegalStateException("Couldn't read the catalog", e);
+        }
+    }
+
+    /**
+     * Stores a Book along with its authors and tags in one transaction. If a Book with the same title was already
+     * stored it is replaced.
+     *
+     * @param toAdd The Book to add
+     */
+    @Override
+    public void addBook(Book toAdd){
+        try(Connection connection = pool.getConnection()){
+            connection.setAutoCommit(false);
+            try{
+                insertBook(connection, toAdd);
+                connection.commit();
+                version.incrementAndGet();
+            }
+            catch(SQLException e){
+                connection.rollback();
+                throw e;
+            }
+        }
+        catch(SQLException e){
+            throw new IllegalStateException("Couldn't store " + toAdd.getTitle(), e);
+        }
+    }
+
+    /**
+     * Stores many Books along with their authors and tags in one transaction
+     *
+     * @param toAdd The Books to add, in order. A later Book replaces an earlier one with the same title
+     */
+    @Override
+    public void addBooks(List<Book> toAdd){
+        try(Connection connection = pool.getConnection()){
+            connection.setAutoCommit(false);
+            try{
+                for(Book book : toAdd){
+                    insertBook(connection, book);
+                }
+                connection.commit();
+                version.incrementAndGet();
+            }
+            catch(SQLException e){
+                connection.rollback();
+                throw e;
+            }
+        }
+        catch(SQLException e){
+            throw new IllegalStateException("Couldn't store " + toAdd.size() + " books", e);
+        }
+    }
+
+    /**
+     * Replaces the rows of a Book. Callers commit the transaction
+     *
+     * @param connection The connection the transaction is open on
+     * @param toAdd The Book to store
+     * @throws SQLException Thrown if the rows can't be written
+     */
+    private static void insertBook(Connection connection, Book toAdd) throws SQLException {
+        try(PreparedStatement delete = connection.prepareStatement("DELETE FROM books WHERE title = ?")){
+            delete.setString(1, toAdd.getTitle());
+            delete.executeUpdate();
+        }
+
+        long id;
+        try(PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO books(title, publisher, publication_date) VALUES (?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS)){
+            insert.setString(1, toAdd.getTitle());
+            insert.setString(2, toAdd.getPublisher());
+            insert.setDate(3, (toAdd.getPublicationDate() == null) ? null : Date.valueOf(toAdd.getPublicationDate()));
+            insert.executeUpdate();
+
+            try(ResultSet keys = insert.getGeneratedKeys()){
+                keys.next();
+                id = keys.getLong(1);
+            }
+        }
+
+        try(PreparedStatement insert = connection.prepareStatement("INSERT INTO authors(book_id, position, "
+                + "first_name, last_name, middle_name, title, suffix) VALUES (?, ?, ?, ?, ?, ?, ?)")){
+            List<Author> authors = toAdd.getAuthors();
+            for(int i = 0; i < authors.size(); i++){
+                Author author = authors.get(i);
+                insert.setLong(1, id);
+                insert.setInt(2, i);
+                insert.setString(3, author.getFirstName());
+                insert.setString(4, author.getLastName());
+                insert.setString(5, author.getMiddleName());
+                insert.setString(6, author.getTitle());
+                insert.setString(7, author.getSuffix());
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+
+        try(PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO book_tags(book_id, tag, weight) VALUES (?, ?, ?)")){
+            SQLException[] failure = new SQLException[1];
+            toAdd.forEachTag((tag, weight) -> {
+                try{
+                    insert.setLong(1, id);
+                    insert.setString(2, tag);
+                    insert.setInt(3, weight);
+                    insert.addBatch();
+                }
+                catch(SQLException e){
+                    failure[0] = e;
+                }
+            });
+            if(failure[0] != null){
+                throw failure[0];
+            }
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * Adds a tag to the Book with the given title with a single upsert
+     *
+     * @param title The title of the Book to tag
+     * @param tag The tag to add or to increase the weight of
+     * @throws BookNotFoundException Thrown if no Book has the title
+     * @throws IllegalArgumentException Thrown if the tag's weight is already the largest an int holds
+     */
+    @Override
+    public void tagBook(String title, String tag){
+        int updated;
+        try(Connection connection = pool.getConnection();
+            PreparedStatement upsert = connection.prepareStatement(TAG_UPSERT)){
+            setTagUpsert(upsert, title, tag, 1);
+            updated = upsert.executeUpdate();
+        }
+        catch(SQLException e){
+            throw tagFailure(title, e);
+        }
+
+        if(updated == 0){
+            throw new BookNotFoundException(title);
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * Adds several tags to the Book with the given title in one transaction, each with a single upsert
+     *
+     * @param title The title of the Book to tag
+     * @param tagCounts Associates each tag to add with the number of times to add it. Every count must be positive
+     * @throws BookNotFoundException Thrown if no Book has the title
+     * @throws IllegalArgumentException Thrown if a count isn't positive or would take a tag's weight past the largest
+     * an int holds. No tag is added
+     */
+    @Override
+    public void tagBook(String title, Map<String, Integer> tagCounts){
+        try(Connection connection = pool.getConnection()){
+            connection.setAutoCommit(false);
+            try(PreparedStatement upsert = connection.prepareStatement(TAG_UPSERT)){
+                for(Map.Entry<String, Integer> tagCount : tagCounts.entrySet()){
+                    if(tagCount.getValue() < 1){
+                        throw new IllegalArgumentException("A tag must be added a positive number of times: "
+                                + tagCount.getKey());
+                    }
+                    setTagUpsert(upsert, title, tagCount.getKey(), tagCount.getValue());
+                    upsert.addBatch();
+                }
+
+                //Every upsert changes a row unless no Book has the title
+                if(Arrays.stream(upsert.executeBatch()).anyMatch(updated -> updated == 0)){
+                    throw new BookNotFoundException(title);
+                }
+                connection.commit();
+                version.incrementAndGet();
+            }
+            catch(SQLException | IllegalArgumentException e){
+                connection.rollback();
+                throw e;
+            }
+        }
+        catch(SQLException e){
+            throw tagFailure(title, e);
+        }
+    }
+
+    /**
+     * Converts a failed tag upsert into the exception to throw. The database rejecting a weight as too large is the
+     * caller's mistake; anything else is a failure of the database
+     *
+     * @param title The title of the Book being tagged
+     * @param e Why the upsert failed
+     * @return An IllegalArgumentException if a weight would have overflowed, otherwise an IllegalStateException
+     */
+    private static RuntimeException tagFailure(String title, SQLException e){
+        for(SQLException cause = e; cause != null; cause = cause.getNextException()){
+            if(NUMERIC_OVERFLOW.equals(cause.getSQLState())){
+                return new IllegalArgumentException("A tag's weight for " + title + " would be more than "
+                        + Integer.MAX_VALUE, e);
+            }
+        }
+        return new IllegalStateException("Couldn't tag " + title, e);
+    }
+
+    /**
+     * Sets the parameters of a {@link #TAG_UPSERT} statement
+     *
+     * @param upsert The statement
+     * @param title The title of the Book to tag
+     * @param tag The tag to add
+     * @param count The number of times to add it
+     * @throws SQLException Thrown if a parameter can't be set
+     */
+    private static void setTagUpsert(PreparedStatement upsert, String title, String tag, int count) throws SQLException {
+        upsert.setString(1, title);
+        upsert.setString(2, tag);
+        upsert.setInt(3, count);
+        upsert.setString(4, tag);
+        upsert.setInt(5, count);
+    }
+
+    /**
+     * @return A number that changes whenever a change is made through this storage. The database must not be changed
+     * by anything else while it is open
+     */
+    @Override
+    public long catalogVersion(){
+        return version.get();
+    }
+
+    /**
+     * Reads a Book from the database. Changes made to the returned Book aren't stored
+     *
+     * @param title String storing the title of the book to get
+     * @return The {@link Book} object of the requested Book, or null if no Book has the title
+     */
+    @Override
+    public Book getBook(String title){
+        try(Connection connection = pool.getConnection();
+            PreparedStatement query = connection.prepareStatement(
+                    "SELECT id, title, publisher, publication_date FROM books WHERE title = ?")){
+            query.setString(1, title);
+            return readBooks(connection, query).values().stream().findFirst().orElse(null);
+        }
+        catch(SQLException e){
+            throw new IllegalStateException("Couldn't read " + title, e);
+        }
+    }
+
+    @Override
+    public Book[] getAllBooks(){
+        try(Connection connection = pool.getConnection();
+            PreparedStatement query = connection.prepareStatement(
+                    "SELECT id, title, publisher, publication_date FROM books")){
+            return readBooks(connection, query).values().toArray(new Book[0]);
+        }
+        catch(SQLException e){
+            throw new IllegalStateException("Couldn't read the catalog", e);
+        }
+    }
+
+    /**
+     * Reads one page of the catalog in order of title using the index on titles
+     *
+     * @param after The title to start after, or null to start at the first Book
+     * @param limit The maximum number of Books to return
+     * @return The next limit Books in order of title
+     */
+    @Override
+    public List<Book> getBooksAfter(String after, int limit){
+        try(Connection connection = pool.getConnection();
+            PreparedStatement query = connection.prepareStatement("SELECT id, title, publisher, publication_date "
+                    + "FROM books WHERE ? IS NULL OR title > ? ORDER BY title LIMIT ?")){
+            query.setString(1, after);
+            query.setString(2, after);
+            query.setInt(3, limit);
+            return new ArrayList<>(readBooks(connection, query).values());
+        }
+        catch(SQLException e){
+            throw new IllegalStateException("Couldn't read the catalog", e);
+        }
+    }
+
+    /**
+     * Gets the limit Books most related to this one with a single aggregate query over the tag index, so only the
+     * tag rows shared with startingPoint are read and only the Books returned are loaded.
+     *
+     * @param startingPoint The {@link Book} to find books related to.
+     * @param limit The maximum number of Books to return
+     * @return A list of at most limit Books ordered by their similarity ranking
+     */
+    @Override
+    public WeightedList<Book> getRelated(Book startingPoint, int limit) {
+        WeightedList<String> tags = startingPoint.getTags();
+        String[] tagNames = new String[tags.size()];
+        Integer[] weights = new Integer[tags.size()];
+        for(int i = 0; i < tags.size(); i++){
+            tagNames[i] = tags.get(i);
+            weights[i] = tags.getWeight(i);
+        }
+
+        try(Connection connection = pool.getConnection();
+            PreparedStatement query = connection.prepareStatement(RELATED_QUERY)){
+            query.setObject(1, tagNames);
+            query.setObject(2, weights);
+            query.setString(3, startingPoint.getTitle());
+            query.setInt(4, limit);
+
+            ArrayList<Long> ids = new ArrayList<>();
+            ArrayList<Integer> similarityRanks = new ArrayList<>();
+            try(ResultSet result = query.executeQuery()){
+                while(result.next()){
+                    ids.add(result.getLong(1));
+                    similarityRanks.add(result.getInt(2));
+                }
+            }
+
+            HashMap<Long, Book> books;
+            try(PreparedStatement load = connection.prepareStatement(
+                    "SELECT id, title, publisher, publication_date FROM books WHERE id = ANY(?)")){
+                load.setObject(1, ids.toArray(new Long[0]));
+                books = readBooks(connection, load);
+            }
+
+            WeightedList.Builder<Book> related = new WeightedList.Builder<>(ids.size());
+            for(int i = 0; i < ids.size(); i++){
+                related.add(books.get(ids.get(i)), similarityRanks.get(i));
+            }
+            return related.build();
+        }
+        catch(SQLException e){
+            throw new IllegalStateException("Couldn't find Books related to " + startingPoint.getTitle(), e);
+        }
+    }
+
+    /**
+     * Gets the limit Books most related to this one as scored by the given {@link SimilarityScorer}. One aggregate
+     * query over the tag index gathers the statistics of every Book sharing a tag with startingPoint, the scores are
+     * computed from them as {@link MemoryBookStorage} computes them, and only the Books returned are loaded.
+     *
+     * @param startingPoint The {@link Book} to find books related to.
+     * @param limit The maximum number of Books to return
+     * @param scorer The scorer used to rank the Books
+     * @return A list of at most limit Books ordered by their score
+     */
+    @Override
+    public WeightedList<Book> getRelated(Book startingPoint, int limit, SimilarityScorer scorer) {
+        if(scorer == SimilarityScorer.RAW){
+            return getRelated(startingPoint, limit);
+        }
+
+        WeightedList<String> tags = startingPoint.getTags();
+        String[] tagNames = new String[tags.size()];
+        Integer[] weights = new Integer[tags.size()];
+        for(int i = 0; i < tags.size(); i++){
+            tagNames[i] = tags.get(i);
+            weights[i] = tags.getWeight(i);
+        }
+
+        try(Connection connection = pool.getConnection()){
+            Double[] squaredIdfs = squaredIdfs(connection, tagNames);
+
+            TopKSelector<Long> relatedIds = new TopKSelector<>(limit);
+            try(PreparedStatement query = connection.prepareStatement(SCORED_RELATED_QUERY)){
+                query.setObject(1, tagNames);
+                query.setObject(2, weights);
+                query.setObject(3, squaredIdfs);
+                query.setString(4, startingPoint.getTitle());
+
+                try(ResultSet result = query.executeQuery()){
+                    while(result.next()){
+                        int score = switch(scorer){
+                            case RAW -> result.getInt(2);
+                            case COSINE -> SimilarityScorer.cosine(result.getLong(2), startingPoint.squaredNorm(),
+                                    result.getLong(5));
+                            case JACCARD -> SimilarityScorer.jaccard(result.getInt(3), startingPoint.tagCount(),
+                                    result.getInt(6));
+                            case TFIDF -> SimilarityScorer.tfidf(result.getDouble(4));
+                        };
+                        if(score != 0){
+                            relatedIds.offer(result.getLong(1), score);
+                        }
+                    }
+                }
+            }
+
+            WeightedList<Long> ranked = relatedIds.toWeightedList();
+            Long[] ids = new Long[ranked.size()];
+            for(int i = 0; i < ids.length; i++){
+                ids[i] = ranked.get(i);
+            }
+
+            HashMap<Long, Book> books;
+            try(PreparedStatement load = connection.prepareStatement(
+                    "SELECT id, title, publisher, publication_date FROM books WHERE id = ANY(?)")){
+                load.setObject(1, ids);
+                books = readBooks(connection, load);
+            }
+
+            WeightedList.Builder<Book> related = new WeightedList.Builder<>(ranked.size());
+            for(int i = 0; i < ranked.size(); i++){
+                related.add(books.get(ranked.get(i)), ranked.getWeight(i));
+            }
+            return related.build();
+        }
+        catch(SQLException e){
+            throw new IllegalStateException("Couldn't find Books related to " + startingPoint.getTitle(), e);
+        }
+    }
+
+    /**
+     * Counts the Books given each tag and the Books in the catalog to find the squared inverse document frequency
+     * {@link SimilarityScorer#TFIDF} multiplies each tag's products by
+     *
+     * @param connection The connection to query on
+     * @param tagNames The tags to find the frequencies of
+     * @return The squared inverse document frequency of each tag, in the same order
+     * @throws SQLException Thrown if the counts can't be read
+     */
+    private static Double[] squaredIdfs(Connection connection, String[] tagNames) throws SQLException {
+        int catalogSize;
+        try(Statement count = connection.createStatement();
+            ResultSet result = count.executeQuery("SELECT COUNT(*) FROM books")){
+            result.next();
+            catalogSize = result.getInt(1);
+        }
+
+        HashMap<String, Integer> documentFrequencies = new HashMap<>();
+        try(PreparedStatement count = connection.prepareStatement(
+                "SELECT tag, COUNT(*) FROM book_tags WHERE tag = ANY(?) GROUP BY tag")){
+            count.setObject(1, tagNames);
+            try(ResultSet result = count.executeQuery()){
+                while(result.next()){
+                    documentFrequencies.put(result.getString(1), result.getInt(2));
+                }
+            }
+        }
+
+        Double[] squaredIdfs = new Double[tagNames.length];
+        for(int i = 0; i < tagNames.length; i++){
+            squaredIdfs[i] = SimilarityScorer.squaredIdf(catalogSize, documentFrequencies.getOrDefault(tagNames[i], 0));
+        }
+        return squaredIdfs;
+    }
+
+    /**
+     * There is no approximate index, so this answers with the exact RAW query. Callers can check
+     * {@link #hasApproximateIndex} to tell their clients
+     *
+     * @param startingPoint The {@link Book} to find books related to.
+     * @param limit The maximum number of Books to return
+     * @return The exact related Books, with the number of Books returned as the candidate count
+     */
+    @Override
+    public ApproximateRelated getRelatedApproximate(Book startingPoint, int limit) {
+        long start = System.nanoTime();
+        WeightedList<Book> related = getRelated(startingPoint, limit);
+        return new ApproximateRelated(related, related.size(), (System.nanoTime() - start) / 1000);
+    }
+
+    /**
+     * @return False: approximate queries are answered exactly
+     */
+    @Override
+    public boolean hasApproximateIndex(){
+        return false;
+    }
+
+    @Override
+    public void setSimilarityMatrix(SimilarityMatrix similarityMatrix) {
+        this.similarityMatrix = similarityMatrix;
+    }
+
+    @Override
+    public WeightedList<Book> getRelatedPrecomputed(Book startingPoint, int limit) {
+        SimilarityMatrix matrix = similarityMatrix;
+
+        if(matrix != null){
+            WeightedList<Book> related = matrix.related(startingPoint.getTitle(), limit, this::getBook);
+            if(related != null){
+                return related;
+            }
+        }
+        return getRelated(startingPoint, limit);
+    }
+
+    /**
+     * Writes every Book in the database to a {@link BinaryCatalog} file, for example to move the catalog back onto the
+     * heap. The file is written to a temporary file first and moved into place, so a failure never leaves a partial
+     * catalog.
+     *
+     * @param saveFile Path to the file to write
+     * @throws IOException Thrown if the file can't be written
+     */
+    @Override
+    public void saveBinaryCatalog(String saveFile) throws IOException {
+        List<Book> books = List.of(getAllBooks());
+        Path file = Path.of(saveFile);
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+        BinaryCatalog.write(tempFile, books, books.stream().map(Book::getTags).toList(), 0);
+        Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads the Books selected by a query along with their authors and tags
+     *
+     * @param connection The connection the query is prepared on
+     * @param query Selects the id, title, publisher and publication date of the Books to read
+     * @return The Books read associated with their ids
+     * @throws SQLException Thrown if the Books can't be read
+     */
+    private static HashMap<Long, Book> readBooks(Connection connection, PreparedStatement query) throws SQLException {
+        LinkedHashMap<Long, Book> books = new LinkedHashMap<>();
+        try(ResultSet result = query.executeQuery()){
+            while(result.next()){
+                Date publicationDate = result.getDate(4);
+                books.put(result.getLong(1), new Book(result.getString(2), result.getString(3),
+                        (publicationDate == null) ? null : publicationDate.toLocalDate(), List.of()));
+            }
+        }
+        if(books.isEmpty()){
+            return books;
+        }
+
+        Long[] ids = books.keySet().toArray(new Long[0]);
+        try(PreparedStatement authors = connection.prepareStatement("SELECT book_id, first_name, last_name, "
+                + "middle_name, title, suffix FROM authors WHERE book_id = ANY(?) ORDER BY book_id, position")){
+            authors.setObject(1, ids);
+            try(ResultSet result = authors.executeQuery()){
+                while(result.next()){
+                    books.get(result.getLong(1)).addAuthor(new Author(result.getString(2), result.getString(3),
+                            result.getString(4), result.getString(5), result.getString(6)));
+                }
+            }
+        }
+
+        try(PreparedStatement tags = connection.prepareStatement(
+                "SELECT book_id, tag, weight FROM book_tags WHERE book_id = ANY(?)")){
+            tags.setObject(1, ids);
+            try(ResultSet result = tags.executeQuery()){
+                while(result.next()){
+                    books.get(result.getLong(1)).setTagWeight(result.getString(2), result.getInt(3));
+                }
+            }
+        }
+
+        return books;
+    }
+
+    /**
+     * Does nothing: every change is committed to the database as it is made
+     */
+    @Override
+    public void sync(){
+    }
+
+    /**
+     * Closes every connection to the database
+     */
+    @Override
+    public void close(){
+        pool.dispose();
+    }
+}
@@ -0,0 +1,72 @@
+package com.lukebroglio.BookAssociation;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns every tag used by the program a small int id. Ids let tags be stored and compared as primitives
+ * (see {@link TagVector}) instead of as Strings. Ids are handed out in the order tags are first seen and never change.
+ *
+ * @author Luke Broglio
+ */
+public final class TagDictionary {
+    /**
+     * Associates each tag that has been seen with its id
+     */
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    /**
+     * The id to give to the next new tag
+     */
+    private static final AtomicInteger nextId = new AtomicInteger();
+    /**
+     * The tag given each id. The tag with id i is at tagsById[i]
+     */
+    private static volatile String[] tagsById = new String[64];
+
+    private TagDictionary(){}
+
+    /**
+     * Gets the id of the given tag, assigning it one if it hasn't been seen before
+     *
+     * @param tag The tag to get the id of
+     * @return The id of the tag
+     */
+    public static int idOf(String tag){
+        Integer id = ids.get(tag);
+
+        if(id == null){
+            id = ids.computeIfAbsent(tag, TagDictionary::assign);
+        }
+        return id;
+    }
+
+    /**
+     * Gives a new tag the next id and records the tag for {@link #tagOf}
+     *
+     * @param tag The new tag
+     * @return The id given to the tag
+     */
+    private static synchronized int assign(String tag){
+        int id = nextId.get();
+
+        if(id == tagsById.length){
+            tagsById = Arrays.copyOf(tagsById, tagsById.length * 2);
+        }
+        tagsById[id] = tag;
+        nextId.incrementAndGet();
+        return id;
+    }
+
+    /**
+     * Gets the tag with the given id
+     *
+     * @param id The id of the tag
+     * @return The tag with the id, or null if no tag has been given the id
+     */
+    public static String tagOf(int id){
+        String[] tags = tagsById;
+
+        return (id >= 0 && id < tags.length) ? tags[id] : null;
+    }
+}
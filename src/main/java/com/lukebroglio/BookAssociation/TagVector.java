@@ -0,0 +1,200 @@
+package com.lukebroglio.BookAssociation;
+
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * An immutable sparse vector of a Book's tag weights. Tags are stored by their {@link TagDictionary} id in ascending
+ * order with their weights in a parallel array, so two vectors can be compared with a single merge-join over the ids
+ * without creating any objects.
+ *
+ * @author Luke Broglio
+ */
+public final class TagVector {
+    /**
+     * The ids of the tags in this vector in ascending order
+     */
+    private final int[] ids;
+    /**
+     * The weights of the tags in this vector. The weight of the tag with id ids[i] is at weights[i]
+     */
+    private final int[] weights;
+    /**
+     * The version of the tags this vector was built from. Used to tell when it is out of date
+     */
+    private final long version;
+
+    private TagVector(int[] ids, int[] weights, long version){
+        this.ids = ids;
+        this.weights = weights;
+        this.version = version;
+    }
+
+    /**
+     * Builds a TagVector from a Book's tags
+     *
+     * @param tags The tags to build the vector from
+     * @param version The version of the tags being read
+     * @return A new TagVector holding the given tags
+     */
+    static TagVector of(ConcurrentWeightedList<String> tags, long version){
+        //Pack each id above its weight so sorting the keys orders the tags by id
+        long[] packed = new long[tags.size()];
+        int[] filled = {0};
+
+        tags.forEach((tag, weight) -> {
+            if(filled[0] < packed.length){
+                packed[filled[0]++] = ((long) TagDictionary.idOf(tag) << 32) | (weight & 0xFFFFFFFFL);
+            }
+        });
+
+        long[] sorted = Arrays.copyOf(packed, filled[0]);
+        Arrays.sort(sorted);
+
+        int[] ids = new int[sorted.length];
+        int[] weights = new int[sorted.length];
+        for(int i = 0; i < sorted.length; i++){
+            ids[i] = (int) (sorted[i] >>> 32);
+            weights[i] = (int) sorted[i];
+        }
+
+        return new TagVector(ids, weights, version);
+    }
+
+    /**
+     * Builds a TagVector from tag ids and weights that are already in ascending order of id
+     *
+     * @param ids The ids of the tags in ascending order
+     * @param weights The weights of the tags. The weight of the tag with id ids[i] is at weights[i]
+     * @return A new TagVector holding the given tags
+     */
+    static TagVector ofSorted(int[] ids, int[] weights){
+        return new TagVector(ids, weights, 0);
+    }
+
+    /**
+     * @return The version of the tags this vector was built from
+     */
+    long version(){
+        return version;
+    }
+
+    /**
+     * @return The number of tags in this vector
+     */
+    public int size(){
+        return ids.length;
+    }
+
+    /**
+     * @param i The position of the tag in this vector
+     * @return The id of the tag at the given position
+     */
+    public int idAt(int i){
+        return ids[i];
+    }
+
+    /**
+     * @param i The position of the tag in this vector
+     * @return The weight of the tag at the given position
+     */
+    public int weightAt(int i){
+        return weights[i];
+    }
+
+    /**
+     * Computes the dot product of two TagVectors: the sum of the products of the weights of every tag they share.
+     * This is the similarity ranking used by {@link Book#getSimilarityRanking}.
+     *
+     * @param a The first vector
+     * @param b The second vector
+     * @return The sum of the weight products of the shared tags
+     */
+    public static int dot(TagVector a, TagVector b){
+        int[] aIds = a.ids;
+        int[] bIds = b.ids;
+        int i = 0;
+        int j = 0;
+        int sum = 0;
+
+        while(i < aIds.length && j < bIds.length){
+            int aId = aIds[i];
+            int bId = bIds[j];
+
+            if(aId == bId){
+                sum += a.weights[i++] * b.weights[j++];
+            }
+            else if(aId < bId){
+                i++;
+            }
+            else{
+                j++;
+            }
+        }
+
+        return sum;
+    }
+
+    /**
+     * Counts the tags two TagVectors share
+     *
+     * @param a The first vector
+     * @param b The second vector
+     * @return The number of tag ids found in both vectors
+     */
+    public static int sharedCount(TagVector a, TagVector b){
+        int[] aIds = a.ids;
+        int[] bIds = b.ids;
+        int i = 0;
+        int j = 0;
+        int shared = 0;
+
+        while(i < aIds.length && j < bIds.length){
+            if(aIds[i] == bIds[j]){
+                shared++;
+                i++;
+                j++;
+            }
+            else if(aIds[i] < bIds[j]){
+                i++;
+            }
+            else{
+                j++;
+            }
+        }
+
+        return shared;
+    }
+
+    /**
+     * Computes the dot product of two TagVectors with the product of each shared tag multiplied by a factor for that tag
+     *
+     * @param a The first vector
+     * @param b The second vector
+     * @param tagFactor Gives the factor to multiply the product of the tag with the given id by
+     * @return The sum of the weighted products of the shared tags
+     */
+    public static double weightedDot(TagVector a, TagVector b, IntToDoubleFunction tagFactor){
+        int[] aIds = a.ids;
+        int[] bIds = b.ids;
+        int i = 0;
+        int j = 0;
+        double sum = 0;
+
+        while(i < aIds.length && j < bIds.length){
+            if(aIds[i] == bIds[j]){
+                sum += (double) a.weights[i] * b.weights[j] * tagFactor.applyAsDouble(aIds[i]);
+                i++;
+                j++;
+            }
+            else if(aIds[i] < bIds[j]){
+                i++;
+            }
+            else{
+                j++;
+            }
+        }
+
+        return sum;
+    }
+}
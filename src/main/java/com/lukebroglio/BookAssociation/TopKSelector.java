@@ -0,0 +1,172 @@
+package com.lukebroglio.BookAssociation;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the k heaviest items offered to it. Items are held in a bounded min-heap (stored in parallel arrays) so the
+ * lightest item kept can be found and replaced in O(log k) time. Offering n items costs O(n log k) and the full set of
+ * offered items is never sorted.
+ *
+ * @author Luke Broglio
+ * @param <T> The type of item being selected
+ */
+public class TopKSelector<T> {
+    /**
+     * The maximum number of items this selector keeps
+     */
+    private final int k;
+    /**
+     * The items currently kept, arranged as a min-heap by weight
+     */
+    private Object[] items;
+    /**
+     * The weights of the kept items. The weight of items[i] is at weights[i]
+     */
+    private int[] weights;
+    /**
+     * The number of items currently kept
+     */
+    private int size;
+
+    /**
+     * Creates a new TopKSelector that keeps the k heaviest items offered to it
+     *
+     * @param k The number of items to keep. Must be at least 0
+     */
+    public TopKSelector(int k){
+        if(k < 0){
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+        this.k = k;
+        //Grow towards k as items arrive so a large k doesn't allocate up front
+        int startSize = Math.min(k, 16);
+        this.items = new Object[startSize];
+        this.weights = new int[startSize];
+    }
+
+    /**
+     * Swaps the items (and weights) at the two given heap indexes
+     *
+     * @param i1 The index of the first item
+     * @param i2 The index of the second item
+     */
+    private void swap(int i1, int i2){
+        Object tempItem = items[i1];
+        items[i1] = items[i2];
+        items[i2] = tempItem;
+
+        int tempWeight = weights[i1];
+        weights[i1] = weights[i2];
+        weights[i2] = tempWeight;
+    }
+
+    /**
+     * Moves the item at the given index up the heap until its parent is no heavier than it
+     *
+     * @param i The index of the item to move
+     */
+    private void siftUp(int i){
+        while(i > 0){
+            int parent = (i - 1) / 2;
+            if(weights[parent] <= weights[i]){
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    /**
+     * Moves the item at the given index down the heap until its children are no lighter than it
+     *
+     * @param i The index of the item to move
+     */
+    private void siftDown(int i){
+        while(true){
+            int lightest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+
+            if(left < size && weights[left] < weights[lightest]){
+                lightest = left;
+            }
+            if(right < size && weights[right] < weights[lightest]){
+                lightest = right;
+            }
+            if(lightest == i){
+                return;
+            }
+
+            swap(i, lightest);
+            i = lightest;
+        }
+    }
+
+    /**
+     * Offers an item to this selector. The item is kept if fewer than k items are held or it is heavier than the
+     * lightest item held, in which case that item is dropped.
+     *
+     * @param item The item to offer
+     * @param weight The weight of the item
+     *
+     * @return True if the item was kept false if it wasn't
+     */
+    public boolean offer(T item, int weight){
+        if(size < k){
+            if(size == items.length){
+                int newSize = (int) Math.min((long) k, items.length * 2L + 1);
+                items = Arrays.copyOf(items, newSize);
+                weights = Arrays.copyOf(weights, newSize);
+            }
+            items[size] = item;
+            weights[size] = weight;
+            siftUp(size);
+            size++;
+            return true;
+        }
+
+        if(size == 0 || weight <= weights[0]){
+            return false;
+        }
+
+        items[0] = item;
+        weights[0] = weight;
+        siftDown(0);
+        return true;
+    }
+
+    /**
+     * Offers every item held by another selector to this one
+     *
+     * @param other The selector whose items should be offered
+     */
+    @SuppressWarnings("unchecked")
+    public void offerAll(TopKSelector<? extends T> other){
+        for(int i = 0; i < other.size; i++){
+            offer((T) other.items[i], other.weights[i]);
+        }
+    }
+
+    /**
+     * @return The number of items currently kept
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Creates a {@link WeightedList} of the items kept by this selector ordered by weight
+     *
+     * @return A new WeightedList with the kept items
+     */
+    @SuppressWarnings("unchecked")
+    public WeightedList<T> toWeightedList(){
+        WeightedList.Builder<T> kept = new WeightedList.Builder<>(size);
+
+        for(int i = 0; i < size; i++){
+            kept.add((T) items[i], weights[i]);
+        }
+
+        return kept.build();
+    }
+}
@@ -0,0 +1,34 @@
+package com.lukebroglio.BookAssociation;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Computes dense dot products with the Vector API. Only loaded by {@link DenseTagScorer} when the
+ * jdk.incubator.vector module is enabled.
+ *
+ * @author Luke Broglio
+ */
+final class VectorDotKernel implements DenseTagScorer.DotKernel {
+    /**
+     * The widest int vector shape supported by the CPU
+     */
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public void dotRows(int[] query, int[] block, int width, int rows, int[] out){
+        for(int row = 0; row < rows; row++){
+            int offset = row * width;
+            IntVector sums = IntVector.zero(SPECIES);
+
+            //Rows are padded to a multiple of the widest species so no tail loop is needed
+            for(int i = 0; i < width; i += SPECIES.length()){
+                IntVector q = IntVector.fromArray(SPECIES, query, i);
+                IntVector b = IntVector.fromArray(SPECIES, block, offset + i);
+                sums = sums.add(q.mul(b));
+            }
+            out[row] = sums.reduceLanes(VectorOperators.ADD);
+        }
+    }
+}
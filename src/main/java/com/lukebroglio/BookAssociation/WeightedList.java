@@ -15,8 +15,10 @@ import java.util.*;
 public class WeightedList<T> implements Collection<T> {
     /**
      * Class to hold an entry in this list with its weight
+     *
+     * @param <T> The type of data the entry holds
      */
-    public class ListEntry {
+    public static class ListEntry<T> {
         /**
          * The data stored in this entry
          */
@@ -25,6 +27,10 @@ public class WeightedList<T> implements Collection<T> {
          * The weight of this entry
          */
         public int weight;
+        /**
+         * The index of this entry within the contents of the list
+         */
+        private int position;
 
         /**
          * Creates a new ListEntry with the given data and a weight of 0
@@ -49,8 +55,8 @@ public class WeightedList<T> implements Collection<T> {
 
         @Override
         public boolean equals(Object o){
-            if(o.getClass().equals(ListEntry.class)){
-                return data.equals(((ListEntry) o).data);
+            if(o instanceof ListEntry<?> other){
+                return data.equals(other.data);
             }
             else {
                 return data.equals(o);
@@ -68,6 +74,131 @@ public class WeightedList<T> implements Collection<T> {
         }
     }
 
+    /**
+     * Collects items and weights in bulk and builds a {@link WeightedList} from them with a single sort.
+     * Items added more than once have their weights summed. Items with the same weight keep the order they were
+     * first added in.
+     *
+     * @param <T> The type of data the built list stores
+     */
+    public static class Builder<T> {
+        /**
+         * The distinct items added to this builder in the order they were first added
+         */
+        private final ArrayList<T> items;
+        /**
+         * The summed weight of each item. The weight of items.get(i) is at weights[i]
+         */
+        private int[] weights;
+        /**
+         * Associates each item with its index in items plus one (so that 0 means the item hasn't been added)
+         */
+        private final IntWeightMap<T> positions;
+
+        /**
+         * Creates a new empty Builder
+         */
+        public Builder(){
+            this(16);
+        }
+
+        /**
+         * Creates a new empty Builder with room for the given number of items
+         *
+         * @param expectedSize The number of items expected to be added
+         */
+        public Builder(int expectedSize){
+            items = new ArrayList<>(expectedSize);
+            weights = new int[Math.max(expectedSize, 1)];
+            positions = new IntWeightMap<>(expectedSize);
+        }
+
+        /**
+         * Adds an item with the given weight. If the item was already added the weight is added to its existing weight
+         *
+         * @param t The item to add
+         * @param weight The weight to add the item with
+         *
+         * @return This builder
+         */
+        public Builder<T> add(T t, int weight){
+            int position = positions.getWeight(t);
+
+            if(position == 0){
+                if(items.size() == weights.length){
+                    weights = Arrays.copyOf(weights, weights.length * 2);
+                }
+                weights[items.size()] = weight;
+                items.add(t);
+                positions.setWeight(t, items.size());
+            }
+            else{
+                weights[position - 1] += weight;
+            }
+
+            return this;
+        }
+
+        /**
+         * Adds every item of a WeightedList with its weight in that list
+         *
+         * @param list The list to add the items of
+         *
+         * @return This builder
+         */
+        public Builder<T> addAll(WeightedList<? extends T> list){
+            for(int i = 0; i < list.size(); i++){
+                add(list.get(i), list.getWeight(i));
+            }
+
+            return this;
+        }
+
+        /**
+         * @return The number of distinct items added to this builder
+         */
+        public int size(){
+            return items.size();
+        }
+
+        /**
+         * Creates a WeightedList holding the items added to this builder ordered by weight.
+         * If the items were added in order no sort is done at all.
+         *
+         * @return A new WeightedList with the added items
+         */
+        public WeightedList<T> build(){
+            int count = items.size();
+            WeightedList<T> built = new WeightedList<>(count);
+
+            boolean ordered = true;
+            for(int i = 1; i < count && ordered; i++){
+                ordered = weights[i - 1] >= weights[i];
+            }
+
+            if(ordered){
+                for(int i = 0; i < count; i++){
+                    built.append(items.get(i), weights[i]);
+                }
+                return built;
+            }
+
+            //Pack each weight above its inverted index so sorting the keys orders by weight and then by first add
+            long[] order = new long[count];
+            for(int i = 0; i < count; i++){
+                order[i] = ((long) weights[i] << 32) | (~i & 0xFFFFFFFFL);
+            }
+            Arrays.sort(order);
+
+            for(int i = count - 1; i >= 0; i--){
+                int position = ~(int) order[i];
+                built.append(items.get(position), weights[position]);
+            }
+
+            return built;
+        }
+    }
+
     private class WeightedListIterator implements Iterator<T>{
         /**
          * Stores the location of this iterator within the {@link WeightedList}
@@ -88,14 +219,20 @@ public class WeightedList<T> implements Collection<T> {
     /**
      * {@link ArrayList} storing the items that have been added to this WeightedList in {@link ListEntry}
      */
-    ArrayList<ListEntry> contents;
+    ArrayList<ListEntry<T>> contents;
+    /**
+     * {@link HashMap} associating every item in this list with its {@link ListEntry} so items can be found without
+     * searching the contents
+     */
+    private final HashMap<T, ListEntry<T>> index;
 
 
     /**
      * Constructs a new WeightedList with a starting size of 10
      */
     public WeightedList(){
-        contents = new ArrayList<ListEntry>();
+        contents = new ArrayList<>();
+        index = new HashMap<>();
     }
 
     /**
@@ -104,72 +241,191 @@ public class WeightedList<T> implements Collection<T> {
      * @param startSize The size to initialize the backing {@link ArrayList} with
      */
     public WeightedList(int startSize){
-        contents = new ArrayList<ListEntry>(startSize);
+        contents = new ArrayList<>(startSize);
+        index = new HashMap<>(startSize);
     }
     /**
-     * Swaps the data at the two given indexes within the given array
+     * Finds the first index in the given range of the contents holding an entry lighter than the given weight.
+     * Relies on the contents being ordered by weight so the range can be binary searched.
      *
-     * @param arr The array to operate in
-     * @param i1 The index of the first piece of data in the given array
-     * @param i2 The index of the second piece of data in the given array
+     * @param from The lowest index of the range to search (inclusive)
+     * @param to The highest index of the range to search (exclusive)
+     * @param weight The weight to compare entries against
+     *
+     * @return The first index in the range with a weight less than the given weight, or to if there is none
      */
-    private void swap(ArrayList<ListEntry> arr,int i1, int i2){
-        //Save the entry at i1
+    private int firstLighter(int from, int to, int weight){
+        int low = from;
+        int high = to;
+
+        while(low < high){
+            int mid = (low + high) >>> 1;
 
-        ListEntry temp = arr.get(i1);
-        //Put the entry at i2 at i1
-        arr.set(i1,arr.get(i2));
+            if(contents.get(mid).weight < weight){
+                high = mid;
+            }
+            else{
+                low = mid + 1;
+            }
+        }
 
-        //put the entry at i1 at i2
-        arr.set(i2,temp);
+        return low;
     }
 
     /**
-     * Partitions the given array around a pivot point as part of QuickSort
+     * Puts the given entry at the given index of the contents and records the index in the entry
      *
-     * @param arr The array to operate on
-     * @param low The lower index of the section of the array to operate on
-     * @param high The upper index of the section of the array to operate on
+     * @param entry The entry to place
+     * @param i The index to place it at
+     */
+    private void place(ListEntry<T> entry, int i){
+        contents.set(i, entry);
+        entry.position = i;
+    }
+
+    /**
+     * Moves the entry at index from to index to, shifting every entry in between one place towards from.
+     * If the entries in between all share a weight the move is done with a single swap instead.
      *
-     * @return The index of the pivot at the end of the process
+     * @param from The index of the entry to move
+     * @param to The index to move the entry to
      */
-    private int partition(ArrayList<ListEntry> arr,int low, int high){
-        int pivotWeight = arr.get(high).weight;
+    private void move(int from, int to){
+        if(from == to){
+            return;
+        }
 
-        int lowLoc = low -1;
-        int highLoc;
+        ListEntry<T> moving = contents.get(from);
+        int step = (to < from) ? -1 : 1;
 
-        for(highLoc = low; highLoc < high; highLoc++){
-            if(arr.get(highLoc).weight > pivotWeight){
-                lowLoc++;
-                swap(arr,lowLoc,highLoc);
+        //The contents are ordered so if both ends of the range passed over match everything in between does too
+        if(contents.get(to).weight == contents.get(from + step).weight){
+            place(contents.get(to), from);
+        }
+        else{
+            for(int i = from; i != to; i += step){
+                place(contents.get(i + step), i);
             }
         }
 
-        swap(arr, lowLoc + 1, high);
-        return (lowLoc + 1);
+        place(moving, to);
+    }
+
+    /**
+     * Moves the given entry to the correct place in the contents after its weight has changed.
+     * Only the changed entry is repositioned, the rest of the list is assumed to still be in order.
+     *
+     * @param entry The entry whose weight changed
+     * @param oldWeight The weight the entry had before it changed
+     */
+    private void reposition(ListEntry<T> entry, int oldWeight){
+        int from = entry.position;
+
+        if(entry.weight > oldWeight){
+            move(from, firstLighter(0, from, entry.weight));
+        }
+        else if(entry.weight < oldWeight){
+            move(from, firstLighter(from + 1, contents.size(), entry.weight) - 1);
+        }
+    }
+
+    /**
+     * Inserts a new entry for the given element after every entry with the same or a higher weight
+     *
+     * @param t The element to insert
+     * @param weight The weight to insert it with
+     */
+    private void insert(T t, int weight){
+        ListEntry<T> toAdd = new ListEntry<>(t, weight);
+        int insertAt = firstLighter(0, contents.size(), weight);
+
+        contents.add(insertAt, toAdd);
+        index.put(t, toAdd);
+        renumber(insertAt);
     }
 
     /**
-     * Performs the quicksort algorithm on the contents of this weighted list
+     * Updates the stored positions of every entry from the given index to the end of the contents
      *
-     * @param low The lower index of the section of the contents to sort
-     * @param high The upper index of the section of the contents to sort
+     * @param from The first index whose entry may have moved
      */
-    private void quickSort(int low, int high){
-        if(low < high){
-            int pivotLoc = partition(contents,low,high);
+    private void renumber(int from){
+        for(int i = from; i < contents.size(); i++){
+            contents.get(i).position = i;
+        }
+    }
 
-            quickSort(low,pivotLoc -1);
-            quickSort(pivotLoc+1,high);
+    /**
+     * Rebuilds the index and stored positions from the contents after entries were removed in bulk
+     */
+    private void rebuildIndex(){
+        index.clear();
+
+        for(int i = 0; i < contents.size(); i++){
+            ListEntry<T> entry = contents.get(i);
+            entry.position = i;
+            index.put(entry.data, entry);
         }
     }
 
     /**
-     * Sorts the contents of this array by their weight. (Largest Weight will be at index 0)
+     * Adds a new item to the end of the list without checking where it belongs. Only for use when items are being
+     * added in order of weight and are known not to be in the list already.
+     *
+     * @param t The item to add
+     * @param weight The weight of the item. Must be no heavier than the last item in the list
      */
-    private void sortContents(){
-        quickSort(0,contents.size() -1);
+    void append(T t, int weight){
+        ListEntry<T> toAdd = new ListEntry<>(t, weight);
+
+        toAdd.position = contents.size();
+        contents.add(toAdd);
+        index.put(t, toAdd);
+    }
+
+    /**
+     * Combines several WeightedLists into one in a single k-way pass over their contents. The heaviest remaining item
+     * of every list is taken in turn so the combined items arrive in order. Items found in more than one list have
+     * their weights summed, and only if that leaves the combined items out of order are they sorted again.
+     *
+     * @param lists The lists to combine
+     * @param <T> The type of data the lists store
+     *
+     * @return A new WeightedList holding every item of the given lists
+     */
+    public static <T> WeightedList<T> merge(Collection<? extends WeightedList<? extends T>> lists){
+        ArrayList<WeightedList<? extends T>> sources = new ArrayList<>(lists);
+        int[] cursors = new int[sources.size()];
+        int total = 0;
+
+        for(WeightedList<? extends T> source : sources){
+            total += source.size();
+        }
+
+        //Holds the index of every list that still has items, ordered by the weight of its next item
+        PriorityQueue<Integer> heads = new PriorityQueue<>(Math.max(sources.size(), 1),
+                (a, b) -> Integer.compare(sources.get(b).getWeight(cursors[b]), sources.get(a).getWeight(cursors[a])));
+
+        for(int i = 0; i < sources.size(); i++){
+            if(!sources.get(i).isEmpty()){
+                heads.add(i);
+            }
+        }
+
+        Builder<T> merged = new Builder<>(total);
+        while(!heads.isEmpty()){
+            int next = heads.poll();
+            WeightedList<? extends T> source = sources.get(next);
+
+            merged.add(source.get(cursors[next]), source.getWeight(cursors[next]));
+            cursors[next]++;
+
+            if(cursors[next] < source.size()){
+                heads.add(next);
+            }
+        }
+
+        return merged.build();
     }
 
 
@@ -184,11 +440,8 @@ public class WeightedList<T> implements Collection<T> {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public boolean contains(Object o){
-      ListEntry checkEntry = new ListEntry((T)o);
-
-      return contents.contains(checkEntry);
+      return index.containsKey(o);
     }
 
     @Override
@@ -225,8 +478,11 @@ public class WeightedList<T> implements Collection<T> {
      * @return true if the operation was successful; false if it fails (Fails are caused by the item not being in the list)
      */
     public boolean incrementItemWeight(T t){
-        if(contents.contains(new ListEntry(t))){
-            contents.get(contents.indexOf(new ListEntry(t))).weight += 1;
+        ListEntry<T> entry = index.get(t);
+
+        if(entry != null){
+            entry.weight += 1;
+            reposition(entry, entry.weight - 1);
             return true;
         }
         return false;
@@ -235,7 +491,7 @@ public class WeightedList<T> implements Collection<T> {
     /**
      * Adds the given element t with a weight of 0 if it isn't already in the list. If it is already in the list
      * increments its weight by one.
-     * Sorts the contents of the List to maintain its order by weight after adding.
+     * Moves the element into place to maintain the List's order by weight after adding.
      *
      * @param t The element to add into the list
      *
@@ -243,29 +499,13 @@ public class WeightedList<T> implements Collection<T> {
      */
     @Override
     public boolean add(T t) {
-       ListEntry toAdd = new ListEntry(t,1);
-
-        boolean flag;
-
-       if(contents.contains(new ListEntry(t))){
-           incrementItemWeight(t);
-           flag = false;
-       }
-       else{
-           flag = contents.add(toAdd);
-
-       }
-
-        sortContents();
-        return flag;
-
-
+        return addWithWeight(t, 1);
     }
 
     /**
      * Adds the given element t with the given weight if it isn't already in the list. If it is already in the list
      * increments its weight by one.
-     * Sorts the contents of the List to maintain its order by weight after adding.
+     * Moves the element into place to maintain the List's order by weight after adding.
      *
      * @param t The element to add into the list
      * @param weight The weight this element should be inserted into the list with.
@@ -273,73 +513,63 @@ public class WeightedList<T> implements Collection<T> {
      * @return true if the add was successful; false if it fails.
      */
     public boolean addWithWeight(T t, int weight){
-        ListEntry toAdd = new ListEntry(t,weight);
-        boolean flag;
-
-        if(contents.contains(new ListEntry(t))){
-            incrementItemWeight(t);
-            flag = false;
-        }
-        else{
-            flag = contents.add(toAdd);
-
+        if(incrementItemWeight(t)){
+            return false;
         }
 
-        sortContents();
-        return flag;
-
+        insert(t, weight);
+        return true;
     }
-    private boolean addNoSort(T t,int weight){
-        ListEntry toAdd = new ListEntry(t,weight);
 
-        if(contents.contains(new ListEntry(t))){
-            incrementItemWeight(t);
-            return false;
-        }
-        else{
-            return contents.add(toAdd);
-        }
-    }
     @Override
     public boolean remove(Object o) {
-        return contents.remove(o);
+        ListEntry<T> entry = index.remove(o);
+
+        if(entry == null){
+            return false;
+        }
+
+        contents.remove(entry.position);
+        renumber(entry.position);
+        return true;
     }
 
     @Override
     public boolean containsAll(@NonNull Collection<?> c) {
-        return contents.containsAll(c);
+        return index.keySet().containsAll(c);
     }
 
     @Override
     public boolean addAll(Collection<? extends T> c) {
-        Iterator<? extends T> cIterator = c.iterator();
         boolean success = true;
-        while(cIterator.hasNext()){
 
-            if(!addNoSort(cIterator.next(), 0)){
+        for(T t : c){
+            if(!addWithWeight(t, 0)){
                 success = false;
             }
-
         }
 
-        sortContents();
-
         return success;
     }
 
     @Override
     public boolean removeAll(@NonNull Collection<?> c) {
-        return contents.removeAll(c);
+        boolean changed = contents.removeIf(entry -> c.contains(entry.data));
+        rebuildIndex();
+        return changed;
     }
 
     @Override
     public boolean retainAll(@NonNull Collection<?> c) {
-        return contents.retainAll(c);
+        boolean changed = contents.removeIf(entry -> !c.contains(entry.data));
+        rebuildIndex();
+        return changed;
     }
 
     @Override
     public void clear() {
         contents.clear();
+        index.clear();
     }
 
     /**
@@ -372,7 +602,22 @@ public class WeightedList<T> implements Collection<T> {
      * @return The index of the item in the backing array
      */
     public int indexOf(T element){
-        return contents.indexOf(new ListEntry(element));
+        ListEntry<T> entry = index.get(element);
+
+        return (entry == null) ? -1 : entry.position;
+    }
+
+    /**
+     * Returns the weight of the given element
+     *
+     * @param element The element to get the weight of
+     *
+     * @return The weight of the element or 0 if it isn't in the list
+     */
+    public int getWeightOf(T element){
+        ListEntry<T> entry = index.get(element);
+
+        return (entry == null) ? 0 : entry.weight;
     }
 
     /**
@@ -384,10 +629,12 @@ public class WeightedList<T> implements Collection<T> {
      * @return True if the change in weight was successful false if it wasn't (EX/ The given data isn't in the list)
      */
     public boolean setWeight(T data, Integer newWeight) {
-        int indexToSet = this.indexOf(data);
+        ListEntry<T> entry = index.get(data);
 
-        if(indexToSet != -1){
-            contents.get(indexToSet).weight = newWeight;
+        if(entry != null){
+            int oldWeight = entry.weight;
+            entry.weight = newWeight;
+            reposition(entry, oldWeight);
             return true;
         }
         return false;
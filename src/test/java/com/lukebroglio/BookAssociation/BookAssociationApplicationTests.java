@@ -1,13 +1,329 @@
 package com.lukebroglio.BookAssociation;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
+@AutoConfigureMockMvc
 class BookAssociationApplicationTests {
+	@Autowired
+	private MockMvc mvc;
+	private ScoreCountingStorage storage;
+
+	/**
+	 * Counts the related queries scored, to check a request answered with 304 never reaches the scorer
+	 */
+	private static class ScoreCountingStorage extends MemoryBookStorage {
+		private final AtomicInteger scored = new AtomicInteger();
+
+		@Override
+		public WeightedList<Book> getRelated(Book startingPoint, int limit){
+			scored.incrementAndGet();
+			return super.getRelated(startingPoint, limit);
+		}
+
+		@Override
+		public WeightedList<Book> getRelated(Book startingPoint, int limit, SimilarityScorer scorer){
+			scored.incrementAndGet();
+			return super.getRelated(startingPoint, limit, scorer);
+		}
+	}
+
+	/**
+	 * Fails to add any group of Books holding one whose title starts with Poison, as a full disk would
+	 */
+	private static class PoisonedStorage extends MemoryBookStorage {
+		@Override
+		public void addBooks(List<Book> toAdd){
+			if(toAdd.stream().anyMatch(book -> book.getTitle().startsWith("Poison"))){
+				throw new IllegalStateException("Couldn't add the Books");
+			}
+			super.addBooks(toAdd);
+		}
+	}
+
+	/**
+	 * Builds a newline-delimited bulk import body of numbered Books
+	 *
+	 * @param lines The number of lines
+	 * @param replaced Associates line numbers (counted from 1) with the text to put there instead of a Book
+	 * @return The body
+	 */
+	private static String bulkBody(int lines, Map<Integer, String> replaced){
+		StringBuilder body = new StringBuilder();
+		for(int line = 1; line <= lines; line++){
+			body.append(replaced.getOrDefault(line,
+					"{\"title\": \"Bulk " + line + "\", \"publicationDate\": \"2000-01-01\"}")).append('\n');
+		}
+		return body.toString();
+	}
+
+	/**
+	 * @param body The body to import
+	 * @param expectedStatus The status the import should answer with
+	 * @return The report of the import
+	 */
+	private JSONObject importBulk(String body, int expectedStatus) throws Exception {
+		MvcResult result = mvc.perform(post("/add/bulk").content(body))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		return new JSONObject(mvc.perform(asyncDispatch(result))
+				.andExpect(status().is(expectedStatus))
+				.andReturn().getResponse().getContentAsString());
+	}
+
+	/**
+	 * Gives the endpoints a small catalog and a running writer, as main would
+	 */
+	@BeforeEach
+	void setUp(){
+		storage = new ScoreCountingStorage();
+		BookAssociationApplication.storedBooks = storage;
+		BookAssociationApplication.mutations = new MutationQueue(BookAssociationApplication.storedBooks,
+				MutationQueue.DEFAULT_CAPACITY, MutationQueue.DEFAULT_BATCH_SIZE);
+		BookAssociationApplication.mutations.start();
+
+		Author author = new Author("First", "Last");
+		for(String title : new String[]{"A", "B", "C"}){
+			BookAssociationApplication.storedBooks.addBook(new Book(title, "Publisher", LocalDate.of(2000, 1, 1), author));
+			BookAssociationApplication.storedBooks.tagBook(title, "shared");
+		}
+		BookAssociationApplication.storedBooks.tagBook("A", "pair");
+		BookAssociationApplication.storedBooks.tagBook("B", "pair");
+	}
+
+	@AfterEach
+	void tearDown(){
+		BookAssociationApplication.mutations.stop();
+	}
 
 	@Test
 	void contextLoads() {
 	}
 
+	@Test
+	void testRelatedRejectsUnknownMode() throws Exception {
+		mvc.perform(get("/related/A").param("mode", "fuzzy")).andExpect(status().isBadRequest());
+		mvc.perform(get("/related/A").param("mode", "approx")).andExpect(status().isOk());
+	}
+
+	@Test
+	void testRelatedRejectsModesOtherScorersDontSupport() throws Exception {
+		mvc.perform(get("/related/A").param("scorer", "cosine").param("mode", "approx"))
+				.andExpect(status().isBadRequest());
+		mvc.perform(get("/related/A").param("scorer", "cosine").param("mode", "precomputed"))
+				.andExpect(status().isBadRequest());
+		mvc.perform(get("/related/A").param("scorer", "cosine")).andExpect(status().isOk());
+		mvc.perform(get("/related/A").param("scorer", "raw").param("mode", "approx")).andExpect(status().isOk());
+	}
+
+	@Test
+	void testSqlAnswersApproximateQueriesExactly() throws Exception {
+		mvc.perform(get("/related/A").param("mode", "approx"))
+				.andExpect(status().isOk())
+				.andExpect(header().doesNotExist("X-Related-Fallback"));
+
+		try(SqlBookStorage sql = new SqlBookStorage("jdbc:h2:mem:endpoints")){
+			for(Book book : BookAssociationApplication.storedBooks.getAllBooks()){
+				sql.addBook(book);
+			}
+			BookAssociationApplication.storedBooks = sql;
+
+			mvc.perform(get("/related/A").param("mode", "approx"))
+					.andExpect(status().isOk())
+					.andExpect(header().string("X-Related-Fallback", "exact"))
+					.andExpect(jsonPath("$[0].title").value("B"));
+			mvc.perform(get("/related/A/recall"))
+					.andExpect(status().isOk())
+					.andExpect(header().string("X-Related-Fallback", "exact"))
+					.andExpect(jsonPath("$.recall").value(1.0));
+			mvc.perform(get("/related/A").param("scorer", "tfidf"))
+					.andExpect(status().isOk())
+					.andExpect(jsonPath("$[0].title").value("B"));
+		}
+	}
+
+	@Test
+	void testUnchangedCatalogIsNotModified() throws Exception {
+		String etag = mvc.perform(get("/").param("limit", "10")).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		assertNotNull(etag);
+		mvc.perform(get("/").param("limit", "10").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified());
+		mvc.perform(get("/").header(HttpHeaders.IF_NONE_MATCH, etag)).andExpect(status().isNotModified());
+
+		mvc.perform(get("/related/A"))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.ETAG, etag));
+		mvc.perform(get("/related/A").header(HttpHeaders.IF_NONE_MATCH, etag)).andExpect(status().isNotModified());
+	}
+
+	@Test
+	void testTaggingChangesETag() throws Exception {
+		String etag = mvc.perform(get("/related/A")).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		MvcResult tagged = mvc.perform(put("/tag").content("{\"title\": \"C\", \"tag\": \"pair\"}"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		mvc.perform(asyncDispatch(tagged)).andExpect(status().isOk());
+
+		String changed = mvc.perform(get("/related/A").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		assertNotEquals(etag, changed);
+		mvc.perform(get("/").param("limit", "10").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.ETAG, changed));
+	}
+
+	@Test
+	void testNotModifiedSkipsScorer() throws Exception {
+		String etag = mvc.perform(get("/related/A").param("scorer", "cosine"))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		assertEquals(1, storage.scored.get());
+
+		mvc.perform(get("/related/A").param("scorer", "cosine").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified());
+		mvc.perform(get("/related/A").header(HttpHeaders.IF_NONE_MATCH, etag)).andExpect(status().isNotModified());
+		assertEquals(1, storage.scored.get());
+	}
+
+	@Test
+	void testBatchTaggingReportsEachEntry() throws Exception {
+		String body = "[{\"title\": \"A\", \"tag\": \"fantasy\", \"count\": 2},"
+				+ "{\"title\": \"Missing\", \"tag\": \"fantasy\"},"
+				+ "\"not an entry\","
+				+ "{\"title\": \"A\", \"tag\": \"fantasy\", \"count\": -1},"
+				+ "{\"title\": \"A\", \"count\": 1},"
+				+ "{\"title\": \"B\", \"tag\": \"epic\", \"count\": " + Integer.MAX_VALUE + "},"
+				+ "{\"title\": \"B\", \"tag\": \"epic\", \"count\": 1},"
+				+ "{\"title\": \"A\", \"tag\": \"fantasy\"}]";
+
+		MvcResult result = mvc.perform(put("/tag/batch").content(body))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		JSONArray results = new JSONArray(mvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString());
+
+		assertEquals(8, results.length());
+		boolean[] expected = {true, false, false, false, false, true, false, true};
+		for(int i = 0; i < expected.length; i++){
+			assertEquals(expected[i], results.getJSONObject(i).getBoolean("ok"), "entry " + i);
+			assertEquals(!expected[i], results.getJSONObject(i).has("error"), "entry " + i);
+		}
+		assertEquals(new BookNotFoundException("Missing").getMessage(), results.getJSONObject(1).getString("error"));
+
+		//Only the valid entries were applied, and the one overflowing entry didn't wrap the weight around
+		assertEquals(3, storage.getBook("A").tagNumber("fantasy"));
+		assertEquals(Integer.MAX_VALUE, storage.getBook("B").tagNumber("epic"));
+	}
+
+	@Test
+	void testBulkImportSkipsMalformedLines() throws Exception {
+		JSONObject report = importBulk(bulkBody(1500,
+				Map.of(3, "not json", 700, "@@@", 1200, "{\"publisher\": \"No title\"}")), 200);
+
+		assertEquals(1497, report.getLong("added"));
+		assertEquals(3, report.getLong("failed"));
+		assertEquals(3, report.getJSONArray("errors").getJSONObject(0).getInt("line"));
+		assertEquals(700, report.getJSONArray("errors").getJSONObject(1).getInt("line"));
+		assertEquals(1200, report.getJSONArray("errors").getJSONObject(2).getInt("line"));
+		assertFalse(report.has("failedChunk"));
+		assertNotNull(storage.getBook("Bulk 1500"));
+		assertNull(storage.getBook("Bulk 3"));
+	}
+
+	@Test
+	void testBulkImportReportsFailedChunk() throws Exception {
+		BookAssociationApplication.mutations.stop();
+		BookAssociationApplication.storedBooks = new PoisonedStorage();
+		BookAssociationApplication.mutations = new MutationQueue(BookAssociationApplication.storedBooks,
+				MutationQueue.DEFAULT_CAPACITY, MutationQueue.DEFAULT_BATCH_SIZE);
+		BookAssociationApplication.mutations.start();
+		String poison = "{\"title\": \"Poison\", \"publicationDate\": \"2000-01-01\"}";
+
+		//A chunk failing while the next one is parsed stops the import there
+		JSONObject report = importBulk(bulkBody(2500, Map.of(1500, poison, 2, "not json")), 500);
+		assertEquals(999, report.getLong("added"));
+		assertEquals(1001, report.getJSONObject("failedChunk").getInt("firstLine"));
+		assertEquals(1000, report.getJSONObject("failedChunk").getInt("lines"));
+		assertEquals("Couldn't add the Books", report.getJSONObject("failedChunk").getString("error"));
+		assertNotNull(BookAssociationApplication.storedBooks.getBook("Bulk 1000"));
+		assertNull(BookAssociationApplication.storedBooks.getBook("Bulk 1001"));
+		assertNull(BookAssociationApplication.storedBooks.getBook("Bulk 2001"));
+
+		//So does the last chunk failing
+		report = importBulk(bulkBody(1500, Map.of(1200, poison)), 500);
+		assertEquals(1000, report.getLong("added"));
+		assertEquals(1001, report.getJSONObject("failedChunk").getInt("firstLine"));
+		assertEquals(500, report.getJSONObject("failedChunk").getInt("lines"));
+	}
+
+	@Test
+	void testTaggingPastLargestWeightIsBadRequest() throws Exception {
+		storage.tagBook("A", Map.of("pair", Integer.MAX_VALUE - 1));
+
+		MvcResult result = mvc.perform(put("/tag").content("{\"title\": \"A\", \"tag\": \"pair\"}"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		mvc.perform(asyncDispatch(result)).andExpect(status().isBadRequest());
+
+		result = mvc.perform(put("/tag/batch").content("[{\"title\": \"A\", \"tag\": \"shared\", \"count\": "
+						+ Integer.MAX_VALUE + "}]"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		JSONArray results = new JSONArray(mvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString());
+		assertFalse(results.getJSONObject(0).getBoolean("ok"));
+		assertEquals(1, storage.getBook("A").tagNumber("shared"));
+		assertEquals(Integer.MAX_VALUE, storage.getBook("A").tagNumber("pair"));
+	}
+
+	@Test
+	void testRelatedToUnknownBookIsNotFound() throws Exception {
+		mvc.perform(get("/related/Missing")).andExpect(status().isNotFound());
+		mvc.perform(get("/related/Missing").param("scorer", "cosine")).andExpect(status().isNotFound());
+		mvc.perform(get("/related/Missing").param("mode", "approx")).andExpect(status().isNotFound());
+		mvc.perform(get("/related/Missing/recall")).andExpect(status().isNotFound());
+	}
+
+	@Test
+	void testTaggingUnknownBookIsNotFound() throws Exception {
+		MvcResult result = mvc.perform(put("/tag").content("{\"title\": \"Missing\", \"tag\": \"fantasy\"}"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		mvc.perform(asyncDispatch(result)).andExpect(status().isNotFound());
+	}
+
 }
@@ -0,0 +1,845 @@
+package com.lukebroglio.BookAssociation;
+
+import org.apache.tomcat.util.json.JSONParser;
+import org.apache.tomcat.util.json.ParseException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BookStorageTests {
+    /**
+     * Creates a MemoryBookStorage holding the given number of books tagged randomly from a small pool of tags
+     */
+    private static MemoryBookStorage randomStorage(int bookCount, long seed){
+        MemoryBookStorage storage = new MemoryBookStorage();
+        Random rand = new Random(seed);
+
+        for(int i = 0; i < bookCount; i++){
+            Book book = new Book("Book " + i, "Publisher", LocalDate.of(2000, 1, 1), new Author("First", "Last"));
+            storage.addBook(book);
+
+            int tagCount = rand.nextInt(1, 8);
+            for(int j = 0; j < tagCount; j++){
+                storage.tagBook(book.getTitle(), "tag" + rand.nextInt(0, 20));
+            }
+        }
+
+        return storage;
+    }
+
+    @Test
+    public void testRelatedExcludesSeedAndUnrelated(){
+        MemoryBookStorage storage = new MemoryBookStorage();
+        Author author = new Author("First", "Last");
+        storage.addBook(new Book("A", "Publisher", LocalDate.of(2000, 1, 1), author));
+        storage.addBook(new Book("B", "Publisher", LocalDate.of(2000, 1, 1), author));
+        storage.addBook(new Book("C", "Publisher", LocalDate.of(2000, 1, 1), author));
+
+        storage.tagBook("A", "fantasy");
+        storage.tagBook("A", "fantasy");
+        storage.tagBook("B", "fantasy");
+        storage.tagBook("C", "history");
+
+        WeightedList<Book> related = storage.getRelated(storage.getBook("A"));
+        assertEquals(1, related.size());
+        assertEquals("B", related.get(0).getTitle());
+        assertEquals(2, related.getWeight(0));
+    }
+
+    @Test
+    public void testLimitedRelatedMatchesFullRanking(){
+        MemoryBookStorage storage = randomStorage(300, 1);
+
+        for(int i = 0; i < 20; i++){
+            Book seed = storage.getBook("Book " + i);
+            WeightedList<Book> full = storage.getRelated(seed);
+            WeightedList<Book> limited = storage.getRelated(seed, 10);
+
+            assertEquals(Math.min(10, full.size()), limited.size());
+            for(int j = 0; j < limited.size(); j++){
+                assertEquals(full.getWeight(j), limited.getWeight(j));
+            }
+        }
+    }
+
+    @Test
+    public void testIndexedRelatedMatchesSimilarityRanking(){
+        MemoryBookStorage storage = randomStorage(300, 2);
+
+        for(int i = 0; i < 20; i++){
+            Book seed = storage.getBook("Book " + i);
+            WeightedList<Book> related = storage.getRelated(seed);
+
+            int expectedCount = 0;
+            for(Book other : storage.getAllBooks()){
+                int similarityRank = seed.getSimilarityRanking(other);
+                if(similarityRank != 0 && !other.equals(seed)){
+                    expectedCount++;
+                    assertEquals(similarityRank, related.getWeightOf(other));
+                }
+            }
+            assertEquals(expectedCount, related.size());
+        }
+    }
+
+    @Test
+    public void testReplacedBookIsReindexed(){
+        MemoryBookStorage storage = new MemoryBookStorage();
+        Author author = new Author("First", "Last");
+        storage.addBook(new Book("A", "Publisher", LocalDate.of(2000, 1, 1), author));
+        storage.addBook(new Book("B", "Publisher", LocalDate.of(2000, 1, 1), author));
+        storage.tagBook("A", "fantasy");
+        storage.tagBook("B", "fantasy");
+
+        storage.addBook(new Book("B", "Publisher", LocalDate.of(2000, 1, 1), author));
+
+        assertEquals(0, storage.getRelated(storage.getBook("A")).size());
+    }
+
+    @Test
+    public void testSimilarityRankingFollowsNewTags(){
+        MemoryBookStorage storage = randomStorage(50, 3);
+
+        for(int i = 0; i < 30; i++){
+            storage.tagBook(i % 2 == 0 ? "Book 0" : "Book 1", "tag" + (i % 7));
+            Book seed = storage.getBook("Book 0");
+            Book other = storage.getBook("Book 1");
+
+            WeightedList<String> shared = seed.compareTags(other);
+            int expected = 0;
+            for(int j = 0; j < shared.size(); j++){
+                expected += shared.getWeight(j);
+            }
+            assertEquals(expected, seed.getSimilarityRanking(other));
+            assertEquals(expected, other.getSimilarityRanking(seed));
+        }
+    }
+
+    @Test
+    public void testCachedRelatedIsInvalidated(){
+        MemoryBookStorage storage = randomStorage(100, 4);
+
+        for(int i = 0; i < 50; i++){
+            Book seed = storage.getBook("Book 0");
+            WeightedList<Book> cached = storage.getRelated(seed, 5);
+            assertEquals(cached, storage.getRelated(seed, 5));
+
+            storage.tagBook("Book " + (i % 10), "tag" + (i % 20));
+
+            seed = storage.getBook("Book 0");
+            WeightedList<Book> related = storage.getRelated(seed, 5);
+            for(int j = 0; j < related.size(); j++){
+                assertEquals(seed.getSimilarityRanking(related.get(j)), related.getWeight(j));
+            }
+        }
+    }
+
+    @Test
+    public void testCachedRelatedShowsNewTagsOfRelatedBooks(){
+        MemoryBookStorage storage = new MemoryBookStorage();
+        Author author = new Author("First", "Last");
+        storage.addBook(new Book("A", "Publisher", LocalDate.of(2000, 1, 1), author));
+        storage.addBook(new Book("B", "Publisher", LocalDate.of(2000, 1, 1), author));
+        storage.tagBook("A", "x");
+        storage.tagBook("B", "x");
+        storage.tagBook("B", "y");
+
+        assertFalse(storage.getRelated(storage.getBook("A"), 5).get(0).hasTag("z"));
+
+        //B only shares x with A, so the list of A has to be dropped for B's tags it already had
+        storage.tagBook("B", "z");
+        assertTrue(storage.getRelated(storage.getBook("A"), 5).get(0).hasTag("z"));
+    }
+
+    @Test
+    public void testParallelRelatedMatchesSequential(){
+        MemoryBookStorage sequential = randomStorage(20000, 5);
+        MemoryBookStorage parallel = randomStorage(20000, 5);
+        parallel.setParallelThreshold(0);
+
+        for(int i = 0; i < 5; i++){
+            WeightedList<Book> expected = sequential.getRelated(sequential.getBook("Book " + i), 25);
+            WeightedList<Book> actual = parallel.getRelated(parallel.getBook("Book " + i), 25);
+
+            assertEquals(expected.size(), actual.size());
+            for(int j = 0; j < expected.size(); j++){
+                assertEquals(expected.getWeight(j), actual.getWeight(j));
+            }
+        }
+    }
+
+    @Test
+    public void testDenseRelatedMatchesSequential(){
+        MemoryBookStorage sequential = randomStorage(2000, 6);
+        MemoryBookStorage dense = randomStorage(2000, 6);
+        dense.setDenseScoring(8);
+
+        for(int i = 0; i < 20; i++){
+            WeightedList<Book> expected = sequential.getRelated(sequential.getBook("Book " + i), 25);
+            WeightedList<Book> actual = dense.getRelated(dense.getBook("Book " + i), 25);
+
+            assertEquals(expected.size(), actual.size());
+            for(int j = 0; j < expected.size(); j++){
+                assertEquals(expected.getWeight(j), actual.getWeight(j));
+            }
+        }
+    }
+
+    @Test
+    public void testScalarKernelMatchesLoadedKernel(){
+        Random rand = new Random(7);
+        int width = DenseTagScorer.ROW_PADDING * 3;
+        int rows = 50;
+        int[] query = new int[width];
+        int[] block = new int[width * rows];
+
+        for(int i = 0; i < width; i++){
+            query[i] = rand.nextInt(0, 20);
+        }
+        for(int i = 0; i < block.length; i++){
+            block[i] = rand.nextInt(0, 20);
+        }
+
+        int[] expected = new int[rows];
+        int[] actual = new int[rows];
+        new DenseTagScorer.ScalarKernel().dotRows(query, block, width, rows, expected);
+        DenseTagScorer.KERNEL.dotRows(query, block, width, rows, actual);
+
+        for(int i = 0; i < rows; i++){
+            assertEquals(expected[i], actual[i]);
+        }
+    }
+
+    @Test
+    public void testApproximateRelatedIsExactlyRanked(){
+        MemoryBookStorage storage = randomStorage(1000, 8);
+        double totalRecall = 0;
+
+        for(int i = 0; i < 20; i++){
+            Book seed = storage.getBook("Book " + i);
+            BookStorage.ApproximateRelated approximate = storage.getRelatedApproximate(seed, 10);
+            WeightedList<Book> exact = storage.getRelated(seed, 10);
+
+            //The candidates are a subset of the catalog, so the j-th best of them can't beat the exact j-th best
+            WeightedList<Book> related = approximate.related();
+            for(int j = 0; j < related.size(); j++){
+                assertEquals(seed.getSimilarityRanking(related.get(j)), related.getWeight(j));
+                assertEquals(false, related.get(j).equals(seed));
+                assertTrue(related.getWeight(j) <= exact.getWeight(j));
+            }
+
+            int found = 0;
+            for(Book book : exact){
+                if(related.contains(book)){
+                    found++;
+                }
+            }
+            BookStorage.RecallReport report = storage.measureRecall(seed, 10);
+            assertEquals((double) found / exact.size(), report.recall());
+            totalRecall += report.recall();
+        }
+
+        //The default bands find about three quarters of the exact top 10 in this catalog
+        assertTrue(totalRecall / 20 >= 0.6);
+    }
+
+    @Test
+    public void testSimilarityMatrixMatchesLiveRelated(@TempDir Path tempDir) throws IOException {
+        MemoryBookStorage storage = randomStorage(700, 9);
+        Path matrixFile = tempDir.resolve("similarity.bin");
+
+        storage.computeSimilarityMatrix(10).write(matrixFile);
+        storage.setSimilarityMatrix(SimilarityMatrix.read(matrixFile));
+
+        for(int i = 0; i < 20; i++){
+            Book seed = storage.getBook("Book " + i);
+            WeightedList<Book> expected = storage.getRelated(seed, 10);
+            WeightedList<Book> actual = storage.getRelatedPrecomputed(seed, 10);
+
+            assertEquals(expected.size(), actual.size());
+            for(int j = 0; j < expected.size(); j++){
+                assertEquals(expected.getWeight(j), actual.getWeight(j));
+            }
+        }
+    }
+
+    @Test
+    public void testScorers(){
+        MemoryBookStorage storage = new MemoryBookStorage();
+        Author author = new Author("First", "Last");
+        storage.addBook(new Book("A", "Publisher", LocalDate.of(2000, 1, 1), author));
+        storage.addBook(new Book("B", "Publisher", LocalDate.of(2000, 1, 1), author));
+        storage.addBook(new Book("C", "Publisher", LocalDate.of(2000, 1, 1), author));
+        storage.addBook(new Book("D", "Publisher", LocalDate.of(2000, 1, 1), author));
+
+        //B shares both of A's tags once, C shares only the common tag but several times
+        storage.tagBook("A", "common");
+        storage.tagBook("A", "rare");
+        storage.tagBook("B", "common");
+        storage.tagBook("B", "rare");
+        storage.tagBook("D", "common");
+        for(int i = 0; i < 3; i++){
+            storage.tagBook("C", "common");
+        }
+
+        Book seed = storage.getBook("A");
+        assertEquals("C", storage.getRelated(seed, 10, SimilarityScorer.RAW).get(0).getTitle());
+        assertEquals("B", storage.getRelated(seed, 10, SimilarityScorer.COSINE).get(0).getTitle());
+        assertEquals("B", storage.getRelated(seed, 10, SimilarityScorer.JACCARD).get(0).getTitle());
+        assertEquals("B", storage.getRelated(seed, 10, SimilarityScorer.TFIDF).get(0).getTitle());
+
+        WeightedList<Book> cosine = storage.getRelated(seed, 10, SimilarityScorer.COSINE);
+        assertEquals(SimilarityScorer.SCALE, cosine.getWeight(0));
+        assertEquals(SimilarityScorer.SCALE / 2, storage.getRelated(seed, 10, SimilarityScorer.JACCARD).getWeight(1));
+    }
+
+    @Test
+    public void testMutationLogReplay(@TempDir Path tempDir) throws IOException {
+        String snapshot = tempDir.resolve("catalog.json").toString();
+        Author author = new Author("First", "Last");
+
+        MemoryBookStorage storage = new MemoryBookStorage();
+        storage.open(snapshot);
+        storage.addBook(new Book("A", "Publisher", LocalDate.of(2000, 1, 1), author));
+        storage.addBook(new Book("B", "Publisher", LocalDate.of(2000, 1, 1), author));
+        storage.tagBook("A", "fantasy");
+        storage.tagBook("B", "fantasy");
+
+        //Changes logged before a compaction must not be replayed on top of the snapshot holding them
+        long compactedThrough = storage.loggedSequence();
+        storage.compact();
+        storage.tagBook("A", "fantasy");
+        storage.tagBook("B", "history");
+        storage.close();
+
+        //A crash in the middle of an append leaves a partial change at the end of the log
+        Path activeSegment = MutationLog.activeSegment(Path.of(snapshot));
+        Files.writeString(activeSegment, "{\"op\":\"tag\",\"ti",
+                StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        MemoryBookStorage reopened = new MemoryBookStorage();
+        reopened.open(snapshot);
+        assertEquals(2, reopened.getBook("A").tagNumber("fantasy"));
+        assertEquals(1, reopened.getBook("B").tagNumber("fantasy"));
+        assertEquals(1, reopened.getBook("B").tagNumber("history"));
+        assertEquals(2, reopened.getRelated(reopened.getBook("A")).getWeight(0));
+        assertFalse(Files.exists(MutationLog.rolledSegment(activeSegment, compactedThrough)));
+
+        reopened.tagBook("B", "history");
+        reopened.close();
+
+        MemoryBookStorage again = new MemoryBookStorage();
+        again.open(snapshot);
+        assertEquals(2, again.getBook("B").tagNumber("history"));
+        again.close();
+
+        //A tail the parser can't tokenize is cut off the same way
+        Files.writeString(activeSegment, "@@@\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        MemoryBookStorage garbled = new MemoryBookStorage();
+        garbled.open(snapshot);
+        assertEquals(2, garbled.getBook("B").tagNumber("history"));
+        garbled.close();
+    }
+
+    @Test
+    public void testSavedCatalogRoundTrip(@TempDir Path tempDir) throws IOException {
+        MemoryBookStorage storage = randomStorage(200, 11);
+        storage.getBook("Book 0").addAuthor(new Author("Second", "Author", "Middle", "Dr.", "Jr."));
+        String saveFile = tempDir.resolve("saved.json").toString();
+        storage.saveBooks(saveFile);
+
+        MemoryBookStorage loaded = new MemoryBookStorage();
+        loaded.readInBooks(saveFile);
+
+        assertEquals(200, loaded.getAllBooks().length);
+        assertEquals("Middle", loaded.getBook("Book 0").getAuthors().get(1).getMiddleName());
+        for(Book book : storage.getAllBooks()){
+            Book copy = loaded.getBook(book.getTitle());
+            assertEquals(book.getPublicationDate(), copy.getPublicationDate());
+            assertEquals(book.getTags().size(), copy.getTags().size());
+            book.forEachTag((tag, weight) -> assertEquals(weight, copy.tagNumber(tag)));
+            assertEquals(storage.getRelated(book, 5).size(), loaded.getRelated(copy, 5).size());
+        }
+    }
+
+    @Test
+    public void testBinaryCatalog(@TempDir Path tempDir) throws IOException {
+        MemoryBookStorage storage = randomStorage(500, 13);
+        Path binary = tempDir.resolve("catalog.bin");
+        storage.saveBinaryCatalog(binary.toString());
+        int tag0Weight = storage.getBook("Book 7").tagNumber("tag0");
+
+        MemoryBookStorage mapped = new MemoryBookStorage();
+        mapped.open(binary.toString());
+        mapped.tagBook("Book 7", "tag0");
+        assertEquals(tag0Weight + 1, mapped.getBook("Book 7").tagNumber("tag0"));
+        assertNull(mapped.getBook("Missing"));
+
+        storage.tagBook("Book 7", "tag0");
+        assertEquals(500, mapped.getAllBooks().length);
+        for(Book book : storage.getAllBooks()){
+            Book copy = mapped.getBook(book.getTitle());
+            assertEquals(book.getPublisher(), copy.getPublisher());
+            assertEquals(book.getPublicationDate(), copy.getPublicationDate());
+            book.forEachTag((tag, weight) -> assertEquals(weight, copy.tagNumber(tag)));
+
+            WeightedList<Book> expected = storage.getRelated(book, 10);
+            WeightedList<Book> actual = mapped.getRelated(copy, 10);
+            for(int i = 0; i < expected.size(); i++){
+                assertEquals(expected.getWeight(i), actual.getWeight(i));
+            }
+        }
+
+        //Compaction keeps writing the format the catalog was opened with
+        mapped.compact();
+        mapped.close();
+        assertTrue(BinaryCatalog.isBinaryCatalog(binary));
+
+        MemoryBookStorage reopened = new MemoryBookStorage();
+        reopened.open(binary.toString());
+        assertEquals(tag0Weight + 1, reopened.getBook("Book 7").tagNumber("tag0"));
+        reopened.close();
+    }
+
+    @Test
+    public void testBinaryCatalogPagesWhileLoading(@TempDir Path tempDir) throws IOException {
+        MemoryBookStorage storage = randomStorage(500, 14);
+        Path binary = tempDir.resolve("catalog.bin");
+        storage.saveBinaryCatalog(binary.toString());
+
+        //Hold back the background read so pages have to be merged from the mapping and the Books added since
+        ArrayList<Runnable> heldLoad = new ArrayList<>();
+        MemoryBookStorage mapped = new MemoryBookStorage();
+        mapped.setCatalogLoader(heldLoad::add);
+        mapped.open(binary.toString());
+        Book added = new Book("Book 250a", "Publisher", LocalDate.of(2000, 1, 1), new Author("First", "Last"));
+        mapped.addBook(added);
+        mapped.tagBook("Book 7", "tag0");
+        storage.addBook(added);
+
+        List<String> expected = Arrays.stream(storage.getAllBooks()).map(Book::getTitle).sorted().toList();
+        ArrayList<String> listed = new ArrayList<>();
+        List<Book> page = mapped.getBooksAfter(null, 7);
+        while(!page.isEmpty()){
+            page.forEach(book -> listed.add(book.getTitle()));
+            page = mapped.getBooksAfter(listed.get(listed.size() - 1), 7);
+        }
+
+        assertEquals(expected, listed);
+        assertEquals(storage.getBook("Book 7").tagNumber("tag0") + 1, mapped.getBook("Book 7").tagNumber("tag0"));
+
+        heldLoad.forEach(Runnable::run);
+        assertEquals(expected.size(), mapped.getAllBooks().length);
+        assertEquals(expected.get(3), mapped.getBooksAfter(expected.get(2), 1).get(0).getTitle());
+        mapped.close();
+    }
+
+    @Test
+    public void testGroupCommit(@TempDir Path tempDir) throws IOException {
+        String snapshot = tempDir.resolve("catalog.json").toString();
+        Path log = tempDir.resolve("catalog.json.log");
+
+        MemoryBookStorage storage = new MemoryBookStorage();
+        storage.setCommitWindow(60_000);
+        storage.open(snapshot);
+        storage.addBook(new Book("A", "Publisher", LocalDate.of(2000, 1, 1), new Author("First", "Last")));
+        for(int i = 0; i < 100; i++){
+            storage.tagBook("A", "tag" + (i % 3));
+        }
+
+        //Changes are applied straight away but only written once the window closes or someone syncs
+        assertEquals(34, storage.getBook("A").tagNumber("tag0"));
+        assertEquals(0, Files.size(log));
+        storage.sync();
+        assertEquals(101, Files.readAllLines(log).size());
+
+        storage.tagBook("A", "tag0");
+        storage.close();
+
+        MemoryBookStorage reopened = new MemoryBookStorage();
+        reopened.open(snapshot);
+        assertEquals(35, reopened.getBook("A").tagNumber("tag0"));
+        reopened.close();
+    }
+
+    @Test
+    public void testFailedCommitIsNeverReportedDurable(@TempDir Path tempDir) throws IOException {
+        Path snapshot = tempDir.resolve("catalog.json");
+        MutationLog log = MutationLog.open(snapshot, 0, record -> {}, 0);
+        log.append(new JSONObject().put("op", "tag"));
+
+        //Interrupting the writing thread closes the segment under the write, so the commit fails
+        Thread.currentThread().interrupt();
+        assertThrows(IOException.class, () -> log.append(new JSONObject().put("op", "tag")));
+        Thread.interrupted();
+
+        //Later changes can't be made durable after the failed ones, and a sync never claims they are
+        assertThrows(IOException.class, () -> log.append(new JSONObject().put("op", "tag")));
+        assertThrows(IOException.class, log::sync);
+        assertThrows(IOException.class, log::close);
+
+        ArrayList<Object> replayed = new ArrayList<>();
+        MutationLog reopened = MutationLog.open(snapshot, 0, replayed::add, 0);
+        assertEquals(1, replayed.size());
+        assertEquals(1, reopened.lastSequence());
+        reopened.close();
+    }
+
+    @Test
+    public void testShardedCompaction(@TempDir Path tempDir) throws IOException {
+        String snapshot = tempDir.resolve("catalog.json").toString();
+        Path shardDirectory = tempDir.resolve("catalog.json.shards");
+
+        //The first compaction splits an existing single file catalog into shards
+        randomStorage(200, 17).saveBooks(snapshot);
+        MemoryBookStorage storage = new MemoryBookStorage();
+        storage.setShardCount(8);
+        storage.open(snapshot);
+        storage.compact();
+
+        byte[][] before = new byte[8][];
+        for(int i = 0; i < 8; i++){
+            before[i] = Files.readAllBytes(shardDirectory.resolve("shard-" + i + ".json"));
+        }
+
+        //Only the changed Book's shard is rewritten
+        int changedShard = Math.floorMod("Book 3".hashCode(), 8);
+        int weight = storage.getBook("Book 3").tagNumber("tag5");
+        storage.tagBook("Book 3", "tag5");
+        storage.compact();
+        for(int i = 0; i < 8; i++){
+            byte[] after = Files.readAllBytes(shardDirectory.resolve("shard-" + i + ".json"));
+            assertEquals(i != changedShard, Arrays.equals(before[i], after));
+        }
+
+        storage.tagBook("Book 3", "tag5");
+        storage.close();
+
+        MemoryBookStorage reopened = new MemoryBookStorage();
+        reopened.setShardCount(8);
+        reopened.open(snapshot);
+        assertEquals(200, reopened.getAllBooks().length);
+        assertEquals(weight + 2, reopened.getBook("Book 3").tagNumber("tag5"));
+        reopened.close();
+    }
+
+    @Test
+    public void testTaggingDuringShardedCompaction(@TempDir Path tempDir) throws Exception {
+        String snapshot = tempDir.resolve("catalog.json").toString();
+        MemoryBookStorage storage = new MemoryBookStorage();
+        storage.setShardCount(4);
+        storage.open(snapshot);
+        for(int i = 0; i < 8; i++){
+            storage.addBook(new Book("Book " + i, "Publisher", LocalDate.of(2000, 1, 1), new Author("First", "Last")));
+        }
+        storage.compact();
+
+        //A compaction that runs while a tag is being made must either write it or leave its shard dirty for the next
+        int tagsPerBook = 300;
+        CompletableFuture<Void> tagging = CompletableFuture.runAsync(() -> {
+            for(int i = 0; i < tagsPerBook * 8; i++){
+                storage.tagBook("Book " + (i % 8), "tag");
+            }
+        });
+        while(!tagging.isDone()){
+            storage.compact();
+        }
+        tagging.join();
+        storage.compact();
+        storage.close();
+
+        MemoryBookStorage reopened = new MemoryBookStorage();
+        reopened.setShardCount(4);
+        reopened.open(snapshot);
+        for(int i = 0; i < 8; i++){
+            assertEquals(tagsPerBook, reopened.getBook("Book " + i).tagNumber("tag"));
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void testSqlRelatedMatchesInMemory(@TempDir Path tempDir) throws IOException, SQLException {
+        MemoryBookStorage storage = randomStorage(300, 13);
+        String saveFile = tempDir.resolve("saved.json").toString();
+        storage.saveBooks(saveFile);
+
+        SqlBookStorage sql = new SqlBookStorage("jdbc:h2:mem:related");
+        sql.open(saveFile);
+        assertEquals(300, sql.getAllBooks().length);
+
+        for(int i = 0; i < 300; i += 7){
+            Book book = storage.getBook("Book " + i);
+            WeightedList<Book> expected = storage.getRelated(book, 10);
+            WeightedList<Book> actual = sql.getRelated(sql.getBook(book.getTitle()), 10);
+
+            assertEquals(expected.size(), actual.size());
+            for(int j = 0; j < expected.size(); j++){
+                assertEquals(expected.getWeight(j), actual.getWeight(j));
+                assertEquals(book.getSimilarityRanking(storage.getBook(actual.get(j).getTitle())), actual.getWeight(j));
+            }
+
+            //Scorers are computed from statistics the database aggregates, so they must agree with the heap's
+            for(SimilarityScorer scorer : SimilarityScorer.values()){
+                WeightedList<Book> expectedScores = storage.getRelated(book, 10, scorer);
+                WeightedList<Book> actualScores = sql.getRelated(sql.getBook(book.getTitle()), 10, scorer);
+
+                assertEquals(expectedScores.size(), actualScores.size(), scorer.name());
+                for(int j = 0; j < expectedScores.size(); j++){
+                    assertEquals(expectedScores.getWeight(j), actualScores.getWeight(j), scorer.name());
+                }
+            }
+
+            //Without an approximate index the exact list is returned and nothing is missed
+            BookStorage.ApproximateRelated approximate = sql.getRelatedApproximate(sql.getBook(book.getTitle()), 10);
+            assertEquals(actual.size(), approximate.related().size());
+            for(int j = 0; j < actual.size(); j++){
+                assertEquals(actual.get(j), approximate.related().get(j));
+                assertEquals(actual.getWeight(j), approximate.related().getWeight(j));
+            }
+            assertEquals(1.0, sql.measureRecall(sql.getBook(book.getTitle()), 10).recall());
+        }
+        assertFalse(sql.hasApproximateIndex());
+        sql.close();
+    }
+
+    @Test
+    public void testSqlTagAndReplace() throws SQLException {
+        SqlBookStorage sql = new SqlBookStorage("jdbc:h2:mem:tagging");
+        Author author = new Author("First", "Last", "Middle", "Dr.", "Jr.");
+        sql.addBook(new Book("A", "Publisher", LocalDate.of(2000, 1, 1), author));
+        sql.addBook(new Book("B", null, null, new Author("First", "Last")));
+
+        sql.tagBook("A", "fantasy");
+        sql.tagBook("A", "fantasy");
+        sql.tagBook("B", "fantasy");
+        assertThrows(IllegalArgumentException.class, () -> sql.tagBook("C", "fantasy"));
+
+        Book a = sql.getBook("A");
+        assertEquals(2, a.tagNumber("fantasy"));
+        assertEquals("Jr.", a.getAuthors().get(0).getSuffix());
+        assertNull(sql.getBook("B").getPublicationDate());
+        assertEquals(2, sql.getRelated(a).getWeight(0));
+
+        //Replacing a Book drops its old tags
+        sql.addBook(new Book("B", "Publisher", LocalDate.of(2001, 1, 1), author));
+        assertEquals(0, sql.getRelated(a).size());
+        assertNull(sql.getBook("C"));
+        assertEquals(0, sql.getRelated(a, 5, SimilarityScorer.COSINE).size());
+        sql.close();
+    }
+
+    @Test
+    public void testBooksAfterPagesInTitleOrder() throws SQLException {
+        MemoryBookStorage storage = randomStorage(250, 17);
+        SqlBookStorage sql = new SqlBookStorage("jdbc:h2:mem:paging");
+        for(Book book : storage.getAllBooks()){
+            sql.addBook(book);
+        }
+
+        String[] expected = Arrays.stream(storage.getAllBooks()).map(Book::getTitle).sorted().toArray(String[]::new);
+        for(BookStorage pages : new BookStorage[]{storage, sql}){
+            List<String> titles = new ArrayList<>();
+            List<Book> page = pages.getBooksAfter(null, 40);
+            while(!page.isEmpty()){
+                page.forEach(book -> titles.add(book.getTitle()));
+                page = pages.getBooksAfter(page.get(page.size() - 1).getTitle(), 40);
+            }
+            assertEquals(Arrays.asList(expected), titles);
+        }
+
+        assertEquals(expected[1], storage.getBooksAfter(expected[0], 1).get(0).getTitle());
+        assertTrue(storage.getBooksAfter(expected[expected.length - 1], 10).isEmpty());
+        sql.close();
+    }
+
+    @Test
+    public void testCachedJsonFollowsChanges(){
+        MemoryBookStorage storage = randomStorage(20, 19);
+        Book book = storage.getBook("Book 3");
+
+        byte[] json = book.jsonBytes();
+        assertEquals(new JSONObject(book).toString(), new String(json, StandardCharsets.UTF_8));
+        assertSame(json, book.jsonBytes());
+
+        long version = storage.catalogVersion();
+        storage.tagBook("Book 3", "new tag");
+        assertTrue(storage.catalogVersion() > version);
+        book = storage.getBook("Book 3");
+        assertEquals(new JSONObject(book).toString(), new String(book.jsonBytes(), StandardCharsets.UTF_8));
+
+        byte[] tagged = book.jsonBytes();
+        book.setPublisher("Another Publisher");
+        assertNotSame(tagged, book.jsonBytes());
+        assertEquals(new JSONObject(book).toString(), new String(book.jsonBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTaggingLeavesEarlierVersionsUnchanged(){
+        MemoryBookStorage storage = randomStorage(50, 23);
+        Book before = storage.getBook("Book 3");
+        int weight = before.tagNumber("tag5");
+        long version = storage.catalogVersion();
+
+        storage.tagBook("Book 3", "tag5");
+        Book after = storage.getBook("Book 3");
+
+        //Readers still holding the earlier Book see it as it was when they read it
+        assertNotSame(before, after);
+        assertEquals(weight, before.tagNumber("tag5"));
+        assertEquals(weight + 1, after.tagNumber("tag5"));
+        assertEquals(version + 1, storage.catalogVersion());
+        assertTrue(Arrays.stream(storage.getAllBooks()).anyMatch(book -> book == after));
+        assertFalse(Arrays.stream(storage.getAllBooks()).anyMatch(book -> book == before));
+    }
+
+    @Test
+    public void testMutationQueueAppliesInOrderAndRejectsWhenFull(){
+        MemoryBookStorage storage = new MemoryBookStorage();
+        MutationQueue queue = new MutationQueue(storage, 3, 2);
+
+        //Nothing is applied until the writer starts, so the fourth change finds the queue full
+        CompletableFuture<Void> added = queue.addBook(new Book("A", "Publisher", LocalDate.of(2000, 1, 1),
+                new Author("First", "Last")), false);
+        CompletableFuture<Void> tagged = queue.tagBook("A", "fantasy", true);
+        CompletableFuture<Void> missing = queue.tagBook("B", "fantasy", false);
+        assertThrows(RejectedExecutionException.class, () -> queue.tagBook("A", "fantasy", false));
+        assertNull(storage.getBook("A"));
+
+        queue.start();
+        added.join();
+        tagged.join();
+        assertThrows(CompletionException.class, missing::join);
+        queue.tagBook("A", "fantasy", false).join();
+        queue.stop();
+
+        assertEquals(2, storage.getBook("A").tagNumber("fantasy"));
+    }
+
+    @Test
+    public void testBatchTagging(@TempDir Path tempDir) throws IOException, SQLException {
+        String snapshot = tempDir.resolve("catalog.json").toString();
+        LinkedHashMap<String, Integer> tagCounts = new LinkedHashMap<>();
+        tagCounts.put("fantasy", 3);
+        tagCounts.put("history", 1);
+
+        MemoryBookStorage storage = new MemoryBookStorage();
+        SqlBookStorage sql = new SqlBookStorage("jdbc:h2:mem:batchTagging");
+        storage.open(snapshot);
+        for(BookStorage target : List.of(storage, sql)){
+            target.addBook(new Book("A", "Publisher", LocalDate.of(2000, 1, 1), new Author("First", "Last")));
+            target.addBook(new Book("B", "Publisher", LocalDate.of(2000, 1, 1), new Author("First", "Last")));
+            target.tagBook("B", "fantasy");
+            target.tagBook("A", "fantasy");
+            target.tagBook("A", tagCounts);
+
+            Book a = target.getBook("A");
+            assertEquals(4, a.tagNumber("fantasy"));
+            assertEquals(1, a.tagNumber("history"));
+            assertEquals(4, target.getRelated(target.getBook("B")).getWeight(0));
+            assertThrows(IllegalArgumentException.class, () -> target.tagBook("C", tagCounts));
+            assertThrows(IllegalArgumentException.class, () -> target.tagBook("A", Map.of("fantasy", 0)));
+            assertEquals(4, target.getBook("A").tagNumber("fantasy"));
+        }
+        storage.close();
+        sql.close();
+
+        //The batch is logged as one change and replayed the same way
+        assertEquals(5, Files.readAllLines(tempDir.resolve("catalog.json.log")).size());
+        MemoryBookStorage reopened = new MemoryBookStorage();
+        reopened.open(snapshot);
+        assertEquals(4, reopened.getBook("A").tagNumber("fantasy"));
+        assertEquals(17, reopened.getBook("A").squaredNorm());
+        reopened.close();
+    }
+
+    @Test
+    public void testTagWeightOverflowIsRejected() throws SQLException {
+        MemoryBookStorage storage = new MemoryBookStorage();
+        SqlBookStorage sql = new SqlBookStorage("jdbc:h2:mem:weightOverflow");
+        for(BookStorage target : List.of(storage, sql)){
+            target.addBook(new Book("A", "Publisher", LocalDate.of(2000, 1, 1), new Author("First", "Last")));
+            target.addBook(new Book("B", "Publisher", LocalDate.of(2000, 1, 1), new Author("First", "Last")));
+            target.tagBook("A", Map.of("x", 5));
+            target.tagBook("B", "x");
+
+            //The existing weight counts, not just the count being added
+            assertThrows(IllegalArgumentException.class, () -> target.tagBook("A", Map.of("x", Integer.MAX_VALUE)));
+            //A rejected batch adds none of its tags
+            LinkedHashMap<String, Integer> tagCounts = new LinkedHashMap<>();
+            tagCounts.put("y", 1);
+            tagCounts.put("x", Integer.MAX_VALUE - 4);
+            assertThrows(IllegalArgumentException.class, () -> target.tagBook("A", tagCounts));
+            assertEquals(5, target.getBook("A").tagNumber("x"));
+            assertEquals(0, target.getBook("A").tagNumber("y"));
+
+            target.tagBook("A", Map.of("x", Integer.MAX_VALUE - 5));
+            assertThrows(IllegalArgumentException.class, () -> target.tagBook("A", "x"));
+            assertEquals(Integer.MAX_VALUE, target.getBook("A").tagNumber("x"));
+            assertEquals(Integer.MAX_VALUE, target.getRelated(target.getBook("B")).getWeight(0));
+        }
+        sql.close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAddBooksInOneVersion(@TempDir Path tempDir) throws IOException, ParseException {
+        //Books sent without tag weights give each tag a weight of 1
+        LinkedHashMap<Object, Object> json = (LinkedHashMap<Object, Object>) new JSONParser(
+                "{\"title\":\"A\",\"publisher\":\"P\",\"publicationDate\":\"2000-01-01\",\"tags\":[\"x\",\"y\"]}").parse();
+        Book unweighted = new Book(json, new HashMap<>());
+        assertEquals(1, unweighted.tagNumber("x"));
+        assertEquals(2, unweighted.squaredNorm());
+        assertTrue(unweighted.getAuthors().isEmpty());
+
+        String snapshot = tempDir.resolve("catalog.json").toString();
+        MemoryBookStorage storage = new MemoryBookStorage();
+        storage.open(snapshot);
+        storage.addBook(unweighted);
+        long version = storage.catalogVersion();
+
+        ArrayList<Book> books = new ArrayList<>();
+        for(int i = 0; i < 100; i++){
+            Book book = new Book("Book " + i, "Publisher", LocalDate.of(2000, 1, 1), new Author("First", "Last"));
+            book.setTagWeight("x", i % 3 + 1);
+            books.add(book);
+        }
+        storage.addBooks(books);
+
+        assertEquals(101, storage.getAllBooks().length);
+        assertEquals(version + 100, storage.catalogVersion());
+        assertEquals(3, storage.getRelated(storage.getBook("A"), 1).getWeight(0));
+        storage.close();
+
+        MemoryBookStorage reopened = new MemoryBookStorage();
+        reopened.open(snapshot);
+        assertEquals(101, reopened.getAllBooks().length);
+        assertEquals(3, reopened.getBook("Book 2").tagNumber("x"));
+        reopened.close();
+    }
+}
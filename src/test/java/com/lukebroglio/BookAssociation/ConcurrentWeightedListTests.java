@@ -0,0 +1,54 @@
+package com.lukebroglio.BookAssociation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ConcurrentWeightedListTests {
+    @Test
+    public void testSnapshotOrder(){
+        ConcurrentWeightedList<String> testList = new ConcurrentWeightedList<String>();
+
+        testList.increment("a",1);
+        testList.increment("b",5);
+        testList.increment("c",1);
+        testList.increment("c",1);
+
+        WeightedList<String> ordered = testList.snapshot();
+        assertEquals("b",ordered.get(0));
+        assertEquals("c",ordered.get(1));
+        assertEquals("a",ordered.get(2));
+
+        testList.setWeight("a",10);
+        assertEquals("a",testList.snapshot().get(0));
+        assertEquals(10,testList.getWeightOf("a"));
+    }
+
+    @Test
+    public void testConcurrentIncrements() throws InterruptedException {
+        ConcurrentWeightedList<Integer> testList = new ConcurrentWeightedList<Integer>();
+        ArrayList<Thread> threads = new ArrayList<>();
+
+        for(int t = 0; t < 8; t++){
+            Thread thread = new Thread(() -> {
+                for(int i = 0; i < 10000; i++){
+                    testList.increment(i % 10,1);
+                    testList.snapshot();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for(Thread thread : threads){
+            thread.join();
+        }
+
+        WeightedList<Integer> ordered = testList.snapshot();
+        assertEquals(10,ordered.size());
+        for(int i = 0; i < ordered.size(); i++){
+            assertEquals(8000,ordered.getWeight(i));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.lukebroglio.BookAssociation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class IntWeightMapTests {
+    @Test
+    public void testAddWeight(){
+        IntWeightMap<String> testMap = new IntWeightMap<String>();
+
+        testMap.addWeight("a",2);
+        testMap.addWeight("a",3);
+        testMap.setWeight("b",1);
+
+        assertEquals(5,testMap.getWeight("a"));
+        assertEquals(1,testMap.getWeight("b"));
+        assertEquals(0,testMap.getWeight("c"));
+        assertEquals(false,testMap.containsKey("c"));
+        assertEquals(2,testMap.size());
+    }
+
+    @Test
+    public void testRandomizedToWeightedList(){
+        IntWeightMap<Integer> testMap = new IntWeightMap<Integer>(2);
+        Random rand = new Random();
+        HashMap<Integer,Integer> weightStorage = new HashMap<>();
+
+        for(int i =0; i < 1000; i++){
+            int randWeight = rand.nextInt(-100,100);
+            weightStorage.put(i,randWeight);
+            testMap.setWeight(i,randWeight);
+        }
+
+        WeightedList<Integer> ordered = testMap.toWeightedList();
+        assertEquals(1000,ordered.size());
+
+        for(int i=0; i < ordered.size(); i++){
+            assertEquals(weightStorage.get(ordered.get(i)),ordered.getWeight(i));
+            if(i > 0){
+                assertEquals(true,ordered.getWeight(i - 1) >= ordered.getWeight(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.lukebroglio.BookAssociation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PersistentMapTests {
+    @Test
+    public void testOldVersionsAreUnchanged(){
+        PersistentMap<String, Integer> empty = PersistentMap.empty();
+        PersistentMap<String, Integer> one = empty.with("a", 1);
+        PersistentMap<String, Integer> two = one.with("b", 2);
+        PersistentMap<String, Integer> replaced = two.with("a", 3);
+        PersistentMap<String, Integer> removed = replaced.without("b");
+
+        assertEquals(0, empty.size());
+        assertNull(empty.get("a"));
+        assertEquals(1, one.size());
+        assertNull(one.get("b"));
+        assertEquals(1, two.get("a"));
+        assertEquals(3, replaced.get("a"));
+        assertEquals(2, replaced.size());
+        assertFalse(removed.containsKey("b"));
+        assertTrue(two.containsKey("b"));
+        assertSame(removed, removed.without("missing"));
+        assertTrue(removed.without("a").isEmpty());
+    }
+
+    @Test
+    public void testCollidingHashes(){
+        //"Aa" and "BB" have the same hash code
+        PersistentMap<String, Integer> map = PersistentMap.<String, Integer>empty().with("Aa", 1).with("BB", 2);
+
+        assertEquals(2, map.size());
+        assertEquals(1, map.get("Aa"));
+        assertEquals(2, map.get("BB"));
+        assertEquals(1, map.without("BB").size());
+        assertEquals(1, map.without("BB").get("Aa"));
+        assertNull(map.without("Aa").get("Aa"));
+    }
+
+    @Test
+    public void testRandomizedMatchesHashMap(){
+        Random rand = new Random(29);
+        HashMap<Integer, Integer> expected = new HashMap<>();
+        PersistentMap<Integer, Integer> map = PersistentMap.empty();
+
+        for(int i = 0; i < 20000; i++){
+            int key = rand.nextInt(0, 5000);
+            if(rand.nextInt(3) == 0){
+                expected.remove(key);
+                map = map.without(key);
+            }
+            else{
+                expected.put(key, i);
+                map = map.with(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for(int key = 0; key < 5000; key++){
+            assertEquals(expected.get(key), map.get(key));
+        }
+
+        HashMap<Integer, Integer> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertEquals(expected, visited);
+    }
+}
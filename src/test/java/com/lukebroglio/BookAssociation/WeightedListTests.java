@@ -3,6 +3,7 @@ package com.lukebroglio.BookAssociation;
 import org.junit.jupiter.api.Test;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
@@ -58,4 +59,99 @@ public class WeightedListTests {
     }
 
 
+    @Test
+    public void testIncrementReorders(){
+        WeightedList<String> testList = new WeightedList<String>();
+
+        testList.add("a");
+        testList.add("b");
+        testList.add("c");
+
+        testList.add("c");
+        assertEquals("c",testList.get(0));
+        assertEquals(2,testList.getWeight(0));
+
+        testList.incrementItemWeight("b");
+        testList.incrementItemWeight("b");
+        assertEquals("b",testList.get(0));
+        assertEquals("c",testList.get(1));
+        assertEquals("a",testList.get(2));
+        assertEquals(2,testList.indexOf("a"));
+    }
+
+    @Test
+    public void testSetWeightAndRemove(){
+        WeightedList<String> testList = new WeightedList<String>();
+
+        testList.addWithWeight("a",5);
+        testList.addWithWeight("b",4);
+        testList.addWithWeight("c",3);
+
+        testList.setWeight("a",1);
+        assertEquals("a",testList.get(2));
+        assertEquals(1,testList.getWeightOf("a"));
+
+        assertEquals(true,testList.remove("b"));
+        assertEquals(false,testList.contains("b"));
+        assertEquals(0,testList.indexOf("c"));
+        assertEquals(1,testList.indexOf("a"));
+    }
+
+    @Test
+    public void testRandomizedIncrements(){
+        WeightedList<Integer> testList = new WeightedList<Integer>();
+        Random rand = new Random();
+        HashMap<Integer,Integer> weightStorage = new HashMap<>();
+
+        for(int i =0; i < 5000; i++){
+            int item = rand.nextInt(0,200);
+            testList.add(item);
+            weightStorage.merge(item,1,Integer::sum);
+        }
+
+        for(int i=0; i < testList.size(); i++){
+            assertEquals(weightStorage.get(testList.get(i)),testList.getWeight(i));
+            assertEquals(i,testList.indexOf(testList.get(i)));
+            if(i > 0){
+                assertEquals(true,testList.getWeight(i - 1) >= testList.getWeight(i));
+            }
+        }
+    }
+
+    @Test
+    public void testBuilder(){
+        WeightedList.Builder<String> builder = new WeightedList.Builder<String>();
+
+        builder.add("a",1).add("b",3).add("c",3).add("a",5);
+        WeightedList<String> built = builder.build();
+
+        assertEquals(3,built.size());
+        assertEquals("a",built.get(0));
+        assertEquals(6,built.getWeight(0));
+        assertEquals("b",built.get(1));
+        assertEquals("c",built.get(2));
+        assertEquals(2,built.indexOf("c"));
+    }
+
+    @Test
+    public void testMerge(){
+        WeightedList<String> first = new WeightedList<String>();
+        first.addWithWeight("a",10);
+        first.addWithWeight("b",4);
+        first.addWithWeight("c",1);
+
+        WeightedList<String> second = new WeightedList<String>();
+        second.addWithWeight("d",7);
+        second.addWithWeight("c",6);
+
+        WeightedList<String> merged = WeightedList.merge(List.of(first, second));
+
+        assertEquals(4,merged.size());
+        assertEquals("a",merged.get(0));
+        assertEquals("d",merged.get(1));
+        assertEquals("c",merged.get(2));
+        assertEquals(7,merged.getWeight(2));
+        assertEquals("b",merged.get(3));
+    }
+
 }